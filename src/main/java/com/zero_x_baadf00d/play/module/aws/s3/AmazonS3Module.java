@@ -34,7 +34,7 @@ import scala.collection.Seq;
  * your {@code application.conf} file to enable Amazon PlayS3 module.
  *
  * @author Thibault Meyer
- * @version 16.03.13
+ * @version 26.10.19
  * @see Module
  * @since 16.03.13
  */
@@ -42,6 +42,9 @@ public final class AmazonS3Module extends Module {
 
     @Override
     public Seq<Binding<?>> bindings(final Environment environment, final Configuration configuration) {
-        return seq(bind(AmazonS3ModuleInitializer.class).toSelf().eagerly());
+        return seq(
+            bind(AmazonS3ModuleInitializer.class).toSelf().eagerly(),
+            bind(S3ProfileRegistry.class).toProvider(S3ProfileRegistryProvider.class)
+        );
     }
 }
@@ -23,71 +23,188 @@
  */
 package com.zero_x_baadf00d.play.module.aws.s3;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigUtil;
+import com.zero_x_baadf00d.play.module.aws.s3.ebean.BaseS3FileModel;
+import com.zero_x_baadf00d.play.module.aws.s3.ebean.PackCompactor;
+import play.Environment;
 import play.Logger;
 import play.inject.ApplicationLifecycle;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of {@code AmazonS3Module}.
  *
  * @author Thibault Meyer
- * @version 17.07.05
+ * @version 26.10.19
  * @since 16.03.13
  */
 @Singleton
 public final class AmazonS3ModuleInitializer {
 
+    /**
+     * The configured profiles.
+     *
+     * @since 26.10.19
+     */
+    private final S3ProfileRegistry profileRegistry;
+
+    /**
+     * Executor running the pack compaction, null if not enabled.
+     *
+     * @since 26.10.19
+     */
+    private final ScheduledExecutorService compactionExecutor;
+
     /**
      * Create a simple instance of {@code S3Module}.
      *
      * @param lifecycle     The application life cycle
+     * @param environment   The application environment
      * @param configuration The application configuration
      * @since 16.03.13
      */
     @Inject
-    public AmazonS3ModuleInitializer(final ApplicationLifecycle lifecycle, final Config configuration) {
+    public AmazonS3ModuleInitializer(final ApplicationLifecycle lifecycle, final Environment environment, final Config configuration) {
+        PlayS3.transferScheduler = new TransferScheduler(
+            this.getBytes(configuration, "aws.s3.transfer.maxBytesPerSecond", 0),
+            this.getBytes(configuration, "aws.s3.transfer.upload.maxBytesPerSecond", 0),
+            this.getBytes(configuration, "aws.s3.transfer.download.maxBytesPerSecond", 0),
+            configuration.hasPath("aws.s3.transfer.upload.weight") ? configuration.getInt("aws.s3.transfer.upload.weight") : 1,
+            configuration.hasPath("aws.s3.transfer.download.weight") ? configuration.getInt("aws.s3.transfer.download.weight") : 1,
+            (int) this.getBytes(configuration, "aws.s3.transfer.chunkSize", TransferScheduler.DEFAULT_CHUNK_SIZE)
+        );
+
+        // Default profile is configured directly under "aws.s3", others inherit its settings
+        final Config s3Configuration = configuration.getConfig("aws.s3");
+        final List<S3Profile> profiles = new ArrayList<>();
+        profiles.add(this.createProfile(S3Profile.DEFAULT_NAME, s3Configuration, configuration));
+        if (s3Configuration.hasPath("profiles")) {
+            for (final String name : s3Configuration.getObject("profiles").keySet()) {
+                if (S3Profile.DEFAULT_NAME.equals(name)) {
+                    throw new RuntimeException("S3Module is not properly configured");
+                }
+                final Config profileConfiguration = s3Configuration.getConfig(ConfigUtil.joinPath("profiles", name));
+                profiles.add(this.createProfile(name, profileConfiguration.withFallback(s3Configuration), configuration));
+            }
+        }
+        final List<S3ProfileRegistry.RoutingRule> routingRules = new ArrayList<>();
+        if (s3Configuration.hasPath("routing")) {
+            for (final Config ruleConfiguration : s3Configuration.getConfigList("routing")) {
+                routingRules.add(new S3ProfileRegistry.RoutingRule(
+                    ruleConfiguration.getString("profile"),
+                    ruleConfiguration.hasPath("subDirectory") ? ruleConfiguration.getString("subDirectory").trim() : null,
+                    ruleConfiguration.hasPath("minSize") ? ruleConfiguration.getBytes("minSize") : -1,
+                    ruleConfiguration.hasPath("maxSize") ? ruleConfiguration.getBytes("maxSize") : -1
+                ));
+            }
+        }
+        this.profileRegistry = new S3ProfileRegistry(profiles, routingRules);
+        PlayS3.profileRegistry = this.profileRegistry;
+
+        ScheduledExecutorService packCompactionExecutor = null;
+        if (configuration.hasPath("aws.s3.packing.enabled") && configuration.getBoolean("aws.s3.packing.enabled")) {
+            PlayS3.packWriter = new PackWriter(
+                this.getBytes(configuration, "aws.s3.packing.threshold", 4096),
+                this.getBytes(configuration, "aws.s3.packing.maxPackSize", 8388608),
+                configuration.hasPath("aws.s3.packing.linger") ? configuration.getDuration("aws.s3.packing.linger", TimeUnit.MILLISECONDS) : 100,
+                configuration.hasPath("aws.s3.packing.subDirectory") ? configuration.getString("aws.s3.packing.subDirectory") : "packs"
+            );
+            if (configuration.hasPath("aws.s3.packing.compaction.models")) {
+                packCompactionExecutor = this.scheduleCompaction(environment, configuration);
+            }
+        }
+        this.compactionExecutor = packCompactionExecutor;
+
+        lifecycle.addStopHook(() -> {
+            if (this.compactionExecutor != null) {
+                this.compactionExecutor.shutdownNow();
+            }
+            if (PlayS3.packWriter != null) {
+                PlayS3.packWriter.close();
+            }
+            this.profileRegistry.getProfiles().forEach(profile -> profile.getAmazonS3().shutdown());
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Get the configured profiles.
+     *
+     * @return The profile registry
+     * @since 26.10.19
+     */
+    public S3ProfileRegistry getProfileRegistry() {
+        return this.profileRegistry;
+    }
+
+    /**
+     * Create a profile and its bucket if needed. Each profile has its own
+     * client, thus its own connection pool.
+     *
+     * @param name                 The name of the profile
+     * @param profileConfiguration The configuration of the profile
+     * @param configuration        The application configuration
+     * @return The profile
+     * @since 26.10.19
+     */
+    private S3Profile createProfile(final String name, final Config profileConfiguration, final Config configuration) {
         final String accessKey;
         final String secretKey;
 
-        if (configuration.hasPath("aws.s3.authKey")) {
-            accessKey = configuration.getString("aws.s3.authKey");
+        if (profileConfiguration.hasPath("authKey")) {
+            accessKey = profileConfiguration.getString("authKey");
         } else {
             accessKey = configuration.getString("aws.authKey");
         }
-        if (configuration.hasPath("aws.s3.authSecret")) {
-            secretKey = configuration.getString("aws.s3.authSecret");
+        if (profileConfiguration.hasPath("authSecret")) {
+            secretKey = profileConfiguration.getString("authSecret");
         } else {
             secretKey = configuration.getString("aws.authSecret");
         }
-        final String endPoint = configuration.getString("aws.s3.endPoint");
-        final String signingRegion = configuration.getString("aws.s3.signingRegion");
-
-        final boolean withPathStyle = configuration.hasPath("aws.s3.withPathStyle")
-            && configuration.getBoolean("aws.s3.withPathStyle");
-        final boolean withChunkedEncodingDisabled = configuration.hasPath("aws.s3.disableChunkedEncoding")
-            && configuration.getBoolean("aws.s3.disableChunkedEncoding");
-
-        PlayS3.bucketName = configuration.getString("aws.s3.bucketName");
-        PlayS3.publicUrl = configuration.hasPath("aws.s3.publicUrl") ? configuration.getString("aws.s3.publicUrl") : "/";
-        if (!PlayS3.publicUrl.endsWith("/")) {
-            PlayS3.publicUrl += "/";
-        }
+        final String endPoint = profileConfiguration.getString("endPoint");
+        final String signingRegion = profileConfiguration.getString("signingRegion");
+
+        final boolean withPathStyle = profileConfiguration.hasPath("withPathStyle")
+            && profileConfiguration.getBoolean("withPathStyle");
+        final boolean withChunkedEncodingDisabled = profileConfiguration.hasPath("disableChunkedEncoding")
+            && profileConfiguration.getBoolean("disableChunkedEncoding");
 
-        if (accessKey == null || secretKey == null || PlayS3.bucketName == null) {
+        final String bucketName = profileConfiguration.getString("bucketName");
+        final String publicUrl = profileConfiguration.hasPath("publicUrl") ? profileConfiguration.getString("publicUrl") : "/";
+
+        if (accessKey == null || secretKey == null || bucketName == null) {
             throw new RuntimeException("S3Module is not properly configured");
         }
 
-        PlayS3.amazonS3 = AmazonS3ClientBuilder
+        final ClientConfiguration clientConfiguration = new ClientConfiguration();
+        if (profileConfiguration.hasPath("maxConnections")) {
+            clientConfiguration.setMaxConnections(profileConfiguration.getInt("maxConnections"));
+        }
+        if (profileConfiguration.hasPath("connectionTimeout")) {
+            clientConfiguration.setConnectionTimeout((int) profileConfiguration.getDuration("connectionTimeout", TimeUnit.MILLISECONDS));
+        }
+        if (profileConfiguration.hasPath("socketTimeout")) {
+            clientConfiguration.setSocketTimeout((int) profileConfiguration.getDuration("socketTimeout", TimeUnit.MILLISECONDS));
+        }
+
+        final AmazonS3 amazonS3 = AmazonS3ClientBuilder
             .standard()
             .withCredentials(new AWSCredentialsProvider() {
                 @Override
@@ -100,6 +217,7 @@ public final class AmazonS3ModuleInitializer {
                     // Not used with basic AWS credentials
                 }
             })
+            .withClientConfiguration(clientConfiguration)
             .withPathStyleAccessEnabled(withPathStyle)
             .withChunkedEncodingDisabled(withChunkedEncodingDisabled)
             .withEndpointConfiguration(
@@ -107,16 +225,70 @@ public final class AmazonS3ModuleInitializer {
             )
             .build();
         try {
-            PlayS3.amazonS3.createBucket(PlayS3.bucketName);
+            amazonS3.createBucket(bucketName);
         } catch (final AmazonS3Exception ex) {
             if (ex.getErrorCode().compareTo("BucketAlreadyOwnedByYou") != 0
                 && ex.getErrorCode().compareTo("AccessDenied") != 0) {
                 throw ex;
             }
         } finally {
-            Logger.info("Using PlayS3 Bucket: " + PlayS3.bucketName);
+            Logger.info("Using PlayS3 Bucket: " + bucketName + " (profile " + name + ")");
         }
+        return new S3Profile(name, amazonS3, bucketName, publicUrl);
+    }
 
-        lifecycle.addStopHook(() -> CompletableFuture.completedFuture(null));
+    /**
+     * Schedule the compaction of the packs of each configured model. The
+     * compaction has its own thread, so it never delays the pack uploads.
+     *
+     * @param environment   The application environment
+     * @param configuration The application configuration
+     * @return The executor running the compaction
+     * @since 26.10.19
+     */
+    private ScheduledExecutorService scheduleCompaction(final Environment environment, final Config configuration) {
+        final long interval = configuration.hasPath("aws.s3.packing.compaction.interval")
+            ? configuration.getDuration("aws.s3.packing.compaction.interval", TimeUnit.MILLISECONDS)
+            : TimeUnit.HOURS.toMillis(1);
+        final long gracePeriod = configuration.hasPath("aws.s3.packing.compaction.gracePeriod")
+            ? configuration.getDuration("aws.s3.packing.compaction.gracePeriod", TimeUnit.MILLISECONDS)
+            : TimeUnit.HOURS.toMillis(1);
+        final double minLiveRatio = configuration.hasPath("aws.s3.packing.compaction.minLiveRatio")
+            ? configuration.getDouble("aws.s3.packing.compaction.minLiveRatio")
+            : 0.5;
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "play-s3-pack-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (final String modelClassName : configuration.getStringList("aws.s3.packing.compaction.models")) {
+            final Class<? extends BaseS3FileModel> modelClass;
+            try {
+                modelClass = Class.forName(modelClassName, true, environment.classLoader()).asSubclass(BaseS3FileModel.class);
+            } catch (final ClassNotFoundException | ClassCastException ex) {
+                executor.shutdownNow();
+                throw new RuntimeException("S3Module is not properly configured", ex);
+            }
+            executor.scheduleWithFixedDelay(
+                new PackCompactor<>(modelClass, minLiveRatio, gracePeriod),
+                interval,
+                interval,
+                TimeUnit.MILLISECONDS
+            );
+        }
+        return executor;
+    }
+
+    /**
+     * Get a size in bytes from the configuration.
+     *
+     * @param configuration The application configuration
+     * @param path          The path of the value
+     * @param defaultValue  The value to use if the path is not set
+     * @return The size in bytes
+     * @since 26.10.19
+     */
+    private long getBytes(final Config configuration, final String path, final long defaultValue) {
+        return configuration.hasPath(path) ? configuration.getBytes(path) : defaultValue;
     }
 }
@@ -0,0 +1,367 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3;
+
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.fasterxml.uuid.Generators;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends small objects into larger pack objects. Entries appended
+ * during the linger time are uploaded together with a single request.
+ * Each profile and namespace has its own packs, so a pack never holds
+ * entries from two different tables or buckets.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @since 26.10.19
+ */
+public final class PackWriter implements AutoCloseable {
+
+    /**
+     * User metadata set on a pack, holding the name of the profile which wrote it.
+     *
+     * @since 26.10.19
+     */
+    public static final String PROFILE_METADATA = "play-s3-profile";
+
+    /**
+     * Maximum size of an object to be packed.
+     *
+     * @since 26.10.19
+     */
+    private final long threshold;
+
+    /**
+     * Size at which a pack is uploaded without waiting the linger time.
+     *
+     * @since 26.10.19
+     */
+    private final long maxPackSize;
+
+    /**
+     * Time to wait for other entries before uploading a pack.
+     *
+     * @since 26.10.19
+     */
+    private final long lingerMillis;
+
+    /**
+     * Subdirectory on the bucket where the packs are located.
+     *
+     * @since 26.10.19
+     */
+    private final String subDirectory;
+
+    /**
+     * Packs being filled, per profile and namespace.
+     *
+     * @since 26.10.19
+     */
+    private final Map<String, OpenPack> openPacks;
+
+    /**
+     * Executor uploading the packs.
+     *
+     * @since 26.10.19
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Create a new instance of {@code PackWriter}.
+     *
+     * @param threshold    The maximum size of an object to be packed
+     * @param maxPackSize  The size at which a pack is uploaded
+     * @param lingerMillis The time to wait for other entries before uploading a pack
+     * @param subDirectory The subdirectory on the bucket where the packs are located
+     * @since 26.10.19
+     */
+    public PackWriter(final long threshold, final long maxPackSize, final long lingerMillis, final String subDirectory) {
+        if (threshold <= 0 || maxPackSize < threshold) {
+            throw new IllegalArgumentException("Pack size must be greater than the packing threshold");
+        }
+        this.threshold = threshold;
+        this.maxPackSize = maxPackSize;
+        this.lingerMillis = Math.max(0, lingerMillis);
+        this.subDirectory = subDirectory.trim().replaceAll("/+$", "");
+        this.openPacks = new ConcurrentHashMap<>();
+        this.executor = Executors.newScheduledThreadPool(2, runnable -> {
+            final Thread thread = new Thread(runnable, "play-s3-pack-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the maximum size of an object to be packed.
+     *
+     * @return The packing threshold in bytes
+     * @since 26.10.19
+     */
+    public long getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * Get the prefix of the packs of the given namespace.
+     *
+     * @param namespace The namespace
+     * @return The prefix of the pack keys
+     * @since 26.10.19
+     */
+    public String getPackPrefix(final String namespace) {
+        if (this.subDirectory.isEmpty()) {
+            return namespace + "/";
+        }
+        return this.subDirectory + "/" + namespace + "/";
+    }
+
+    /**
+     * Append an object to the current pack of the given profile and namespace.
+     * The returned future completes once the pack has been uploaded.
+     *
+     * @param profile   The profile holding the pack
+     * @param namespace The namespace
+     * @param data      The object content
+     * @return The location of the object in its pack
+     * @since 26.10.19
+     */
+    public CompletableFuture<PackEntry> append(final S3Profile profile, final String namespace, final byte[] data) {
+        if (data.length > this.threshold) {
+            throw new IllegalArgumentException("Object is too large to be packed");
+        }
+        final String openPackKey = profile.getName() + "/" + namespace;
+        OpenPack toUpload = null;
+        final CompletableFuture<PackEntry> future = new CompletableFuture<>();
+        synchronized (this.openPacks) {
+            OpenPack pack = this.openPacks.get(openPackKey);
+            if (pack != null && pack.content.size() + data.length > this.maxPackSize) {
+                this.openPacks.remove(openPackKey);
+                toUpload = pack;
+                pack = null;
+            }
+            if (pack == null) {
+                pack = new OpenPack(profile, openPackKey, this.getPackPrefix(namespace) + Generators.timeBasedGenerator().generate());
+                this.openPacks.put(openPackKey, pack);
+                final OpenPack lingering = pack;
+                pack.lingerTask = this.executor.schedule(() -> this.flush(lingering), this.lingerMillis, TimeUnit.MILLISECONDS);
+            }
+            pack.entries.add(future);
+            pack.offsets.add((long) pack.content.size());
+            pack.lengths.add((long) data.length);
+            pack.content.write(data, 0, data.length);
+            if (pack.content.size() >= this.maxPackSize) {
+                pack.lingerTask.cancel(false);
+                final OpenPack full = pack;
+                this.executor.execute(() -> this.flush(full));
+            }
+        }
+        if (toUpload != null) {
+            toUpload.lingerTask.cancel(false);
+            final OpenPack previous = toUpload;
+            this.executor.execute(() -> this.flush(previous));
+        }
+        return future;
+    }
+
+    /**
+     * Upload all the packs being filled and stop the executor.
+     *
+     * @since 26.10.19
+     */
+    @Override
+    public void close() {
+        final List<OpenPack> pending;
+        synchronized (this.openPacks) {
+            pending = new ArrayList<>(this.openPacks.values());
+        }
+        for (final OpenPack pack : pending) {
+            // A pending linger task would delay the termination of the executor
+            pack.lingerTask.cancel(false);
+            this.flush(pack);
+        }
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Upload the given pack, if not already done, and complete its entries.
+     *
+     * @param pack The pack to upload
+     * @since 26.10.19
+     */
+    private void flush(final OpenPack pack) {
+        final byte[] content;
+        synchronized (this.openPacks) {
+            if (pack.flushed) {
+                return;
+            }
+            pack.flushed = true;
+            this.openPacks.remove(pack.openPackKey, pack);
+            content = pack.content.toByteArray();
+        }
+
+        final ObjectMetadata objMetaData = new ObjectMetadata();
+        objMetaData.setContentType("application/octet-stream");
+        objMetaData.setContentLength(content.length);
+        objMetaData.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        objMetaData.addUserMetadata(PackWriter.PROFILE_METADATA, pack.profile.getName());
+        try (InputStream uploadData = PlayS3.getTransferScheduler().schedule(
+            TransferScheduler.Operation.UPLOAD,
+            new ByteArrayInputStream(content),
+            content.length,
+            null
+        )) {
+            pack.profile.getAmazonS3().putObject(
+                new PutObjectRequest(pack.profile.getBucketName(), pack.key, uploadData, objMetaData)
+                    .withCannedAcl(CannedAccessControlList.Private)
+            );
+            for (int idx = 0; idx < pack.entries.size(); ++idx) {
+                pack.entries.get(idx).complete(new PackEntry(pack.key, pack.offsets.get(idx), pack.lengths.get(idx)));
+            }
+        } catch (final IOException | RuntimeException ex) {
+            pack.entries.forEach(future -> future.completeExceptionally(ex));
+        }
+    }
+
+    /**
+     * Location of an object inside a pack.
+     *
+     * @since 26.10.19
+     */
+    public static final class PackEntry {
+
+        /**
+         * The key of the pack.
+         *
+         * @since 26.10.19
+         */
+        private final String packKey;
+
+        /**
+         * The offset of the object in the pack.
+         *
+         * @since 26.10.19
+         */
+        private final long offset;
+
+        /**
+         * The length of the object.
+         *
+         * @since 26.10.19
+         */
+        private final long length;
+
+        /**
+         * Build a new pack entry.
+         *
+         * @param packKey The key of the pack
+         * @param offset  The offset of the object in the pack
+         * @param length  The length of the object
+         * @since 26.10.19
+         */
+        public PackEntry(final String packKey, final long offset, final long length) {
+            this.packKey = packKey;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Get the key of the pack.
+         *
+         * @return The key of the pack
+         * @since 26.10.19
+         */
+        public String getPackKey() {
+            return this.packKey;
+        }
+
+        /**
+         * Get the offset of the object in the pack.
+         *
+         * @return The offset in bytes
+         * @since 26.10.19
+         */
+        public long getOffset() {
+            return this.offset;
+        }
+
+        /**
+         * Get the length of the object.
+         *
+         * @return The length in bytes
+         * @since 26.10.19
+         */
+        public long getLength() {
+            return this.length;
+        }
+    }
+
+    /**
+     * Pack being filled.
+     *
+     * @since 26.10.19
+     */
+    private static final class OpenPack {
+
+        private final S3Profile profile;
+        private final String openPackKey;
+        private final String key;
+        private final ByteArrayOutputStream content;
+        private final List<CompletableFuture<PackEntry>> entries;
+        private final List<Long> offsets;
+        private final List<Long> lengths;
+        private ScheduledFuture<?> lingerTask;
+        private boolean flushed;
+
+        OpenPack(final S3Profile profile, final String openPackKey, final String key) {
+            this.profile = profile;
+            this.openPackKey = openPackKey;
+            this.key = key;
+            this.content = new ByteArrayOutputStream();
+            this.entries = new ArrayList<>();
+            this.offsets = new ArrayList<>();
+            this.lengths = new ArrayList<>();
+        }
+    }
+}
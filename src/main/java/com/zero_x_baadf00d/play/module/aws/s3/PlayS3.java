@@ -29,60 +29,91 @@ import com.amazonaws.services.s3.AmazonS3;
  * PlayS3.
  *
  * @author Thibault Meyer
- * @version 17.02.02
+ * @version 26.10.19
  * @since 17.02.02
  */
 public final class PlayS3 {
 
     /**
-     * Handle to the instance of Amazon PlayS3 client.
+     * The configured profiles.
      *
-     * @since 17.02.02
+     * @since 26.10.19
      */
-    static AmazonS3 amazonS3;
+    static S3ProfileRegistry profileRegistry;
 
     /**
-     * The name of the bucket to use.
+     * The scheduler shaping the bandwidth of the transfers.
      *
-     * @since 17.02.02
+     * @since 26.10.19
      */
-    static String bucketName;
+    static TransferScheduler transferScheduler;
 
     /**
-     * The public URL to use.
+     * The writer packing small objects, null if packing is disabled.
      *
-     * @since 17.02.02
+     * @since 26.10.19
      */
-    static String publicUrl;
+    static PackWriter packWriter;
 
     /**
      * Get the current instance of Amazon PlayS3 client
+     * of the default profile.
      *
      * @return The current instance of Amazon PlayS3 client
      * @since 17.02.02
      */
     public static AmazonS3 getAmazonS3() {
-        return PlayS3.amazonS3;
+        return PlayS3.profileRegistry.getDefault().getAmazonS3();
     }
 
     /**
-     * Get the current bucket name.
+     * Get the current bucket name of the default profile.
      *
      * @return The current bucket name
      * @since 17.02.02
      */
     public static String getBucketName() {
-        return PlayS3.bucketName;
+        return PlayS3.profileRegistry.getDefault().getBucketName();
     }
 
     /**
-     * Get the public URL to use.
+     * Get the public URL to use with the default profile.
      *
      * @return The public URL to use
      * @since 17.02.02
      */
     public static String getPublicUrl() {
-        return PlayS3.publicUrl;
+        return PlayS3.profileRegistry.getDefault().getPublicUrl();
+    }
+
+    /**
+     * Get the configured profiles.
+     *
+     * @return The profile registry
+     * @since 26.10.19
+     */
+    public static S3ProfileRegistry getProfileRegistry() {
+        return PlayS3.profileRegistry;
+    }
+
+    /**
+     * Get the scheduler shaping the bandwidth of the transfers.
+     *
+     * @return The transfer scheduler
+     * @since 26.10.19
+     */
+    public static TransferScheduler getTransferScheduler() {
+        return PlayS3.transferScheduler;
+    }
+
+    /**
+     * Get the writer packing small objects.
+     *
+     * @return The pack writer, otherwise, null if packing is disabled
+     * @since 26.10.19
+     */
+    public static PackWriter getPackWriter() {
+        return PlayS3.packWriter;
     }
 
     /**
@@ -92,6 +123,6 @@ public final class PlayS3 {
      * @since 17.02.02
      */
     public static boolean isReady() {
-        return amazonS3 != null;
+        return profileRegistry != null;
     }
 }
@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * A named Amazon S3 client and the bucket it works on.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @see S3ProfileRegistry
+ * @since 26.10.19
+ */
+public final class S3Profile {
+
+    /**
+     * Name of the profile configured directly under {@code aws.s3}.
+     *
+     * @since 26.10.19
+     */
+    public static final String DEFAULT_NAME = "default";
+
+    /**
+     * The name of the profile.
+     *
+     * @since 26.10.19
+     */
+    private final String name;
+
+    /**
+     * The Amazon S3 client of the profile.
+     *
+     * @since 26.10.19
+     */
+    private final AmazonS3 amazonS3;
+
+    /**
+     * The name of the bucket to use.
+     *
+     * @since 26.10.19
+     */
+    private final String bucketName;
+
+    /**
+     * The public URL to use.
+     *
+     * @since 26.10.19
+     */
+    private final String publicUrl;
+
+    /**
+     * Create a new instance of {@code S3Profile}.
+     *
+     * @param name       The name of the profile
+     * @param amazonS3   The Amazon S3 client to use
+     * @param bucketName The name of the bucket to use
+     * @param publicUrl  The public URL to use
+     * @since 26.10.19
+     */
+    public S3Profile(final String name, final AmazonS3 amazonS3, final String bucketName, final String publicUrl) {
+        this.name = name;
+        this.amazonS3 = amazonS3;
+        this.bucketName = bucketName;
+        this.publicUrl = publicUrl.endsWith("/") ? publicUrl : publicUrl + "/";
+    }
+
+    /**
+     * Get the name of the profile.
+     *
+     * @return The name of the profile
+     * @since 26.10.19
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Get the Amazon S3 client of the profile.
+     *
+     * @return The Amazon S3 client
+     * @since 26.10.19
+     */
+    public AmazonS3 getAmazonS3() {
+        return this.amazonS3;
+    }
+
+    /**
+     * Get the name of the bucket to use.
+     *
+     * @return The bucket name
+     * @since 26.10.19
+     */
+    public String getBucketName() {
+        return this.bucketName;
+    }
+
+    /**
+     * Get the public URL to use.
+     *
+     * @return The public URL, always ending with a slash
+     * @since 26.10.19
+     */
+    public String getPublicUrl() {
+        return this.publicUrl;
+    }
+}
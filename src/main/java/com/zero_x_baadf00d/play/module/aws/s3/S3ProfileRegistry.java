@@ -0,0 +1,216 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3;
+
+import java.util.*;
+
+/**
+ * Holds all the configured {@code S3Profile} and chooses the
+ * profile to use for each new upload.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @see S3Profile
+ * @since 26.10.19
+ */
+public final class S3ProfileRegistry {
+
+    /**
+     * The profiles, by name.
+     *
+     * @since 26.10.19
+     */
+    private final Map<String, S3Profile> profiles;
+
+    /**
+     * The routing rules, in evaluation order.
+     *
+     * @since 26.10.19
+     */
+    private final List<RoutingRule> routingRules;
+
+    /**
+     * Create a new instance of {@code S3ProfileRegistry}.
+     *
+     * @param profiles     The profiles, one of them must be named {@code default}
+     * @param routingRules The routing rules, in evaluation order
+     * @since 26.10.19
+     */
+    public S3ProfileRegistry(final Collection<S3Profile> profiles, final List<RoutingRule> routingRules) {
+        final Map<String, S3Profile> profilesByName = new LinkedHashMap<>();
+        for (final S3Profile profile : profiles) {
+            if (profilesByName.put(profile.getName(), profile) != null) {
+                throw new IllegalArgumentException("Duplicated PlayS3 profile: " + profile.getName());
+            }
+        }
+        if (!profilesByName.containsKey(S3Profile.DEFAULT_NAME)) {
+            throw new IllegalArgumentException("Missing default PlayS3 profile");
+        }
+        for (final RoutingRule rule : routingRules) {
+            if (!profilesByName.containsKey(rule.getProfileName())) {
+                throw new IllegalArgumentException("Unknown PlayS3 profile: " + rule.getProfileName());
+            }
+        }
+        this.profiles = Collections.unmodifiableMap(profilesByName);
+        this.routingRules = Collections.unmodifiableList(new ArrayList<>(routingRules));
+    }
+
+    /**
+     * Get the default profile.
+     *
+     * @return The default profile
+     * @since 26.10.19
+     */
+    public S3Profile getDefault() {
+        return this.profiles.get(S3Profile.DEFAULT_NAME);
+    }
+
+    /**
+     * Get a profile by its name.
+     *
+     * @param name The name of the profile, {@code null} for the default profile
+     * @return The profile
+     * @throws IllegalArgumentException If the profile does not exist
+     * @since 26.10.19
+     */
+    public S3Profile get(final String name) {
+        if (name == null) {
+            return this.getDefault();
+        }
+        final S3Profile profile = this.profiles.get(name);
+        if (profile == null) {
+            throw new IllegalArgumentException("Unknown PlayS3 profile: " + name);
+        }
+        return profile;
+    }
+
+    /**
+     * Get all the profiles.
+     *
+     * @return The profiles
+     * @since 26.10.19
+     */
+    public Collection<S3Profile> getProfiles() {
+        return this.profiles.values();
+    }
+
+    /**
+     * Choose the profile of a new upload. The first matching
+     * rule wins, otherwise the default profile is used.
+     *
+     * @param subDirectory  The subdirectory of the file
+     * @param contentLength The size of the file, or {@code -1} if unknown
+     * @return The profile to use
+     * @since 26.10.19
+     */
+    public S3Profile route(final String subDirectory, final long contentLength) {
+        for (final RoutingRule rule : this.routingRules) {
+            if (rule.matches(subDirectory, contentLength)) {
+                return this.profiles.get(rule.getProfileName());
+            }
+        }
+        return this.getDefault();
+    }
+
+    /**
+     * Routes the uploads matching all its conditions to a profile.
+     *
+     * @since 26.10.19
+     */
+    public static final class RoutingRule {
+
+        /**
+         * The profile to use.
+         *
+         * @since 26.10.19
+         */
+        private final String profileName;
+
+        /**
+         * The subdirectory to match, {@code null} to match all.
+         *
+         * @since 26.10.19
+         */
+        private final String subDirectory;
+
+        /**
+         * The minimum size to match, negative to ignore.
+         *
+         * @since 26.10.19
+         */
+        private final long minSize;
+
+        /**
+         * The maximum size to match, negative to ignore.
+         *
+         * @since 26.10.19
+         */
+        private final long maxSize;
+
+        /**
+         * Build a new routing rule.
+         *
+         * @param profileName  The profile to use
+         * @param subDirectory The subdirectory to match, {@code null} to match all
+         * @param minSize      The minimum size to match, negative to ignore
+         * @param maxSize      The maximum size to match, negative to ignore
+         * @since 26.10.19
+         */
+        public RoutingRule(final String profileName, final String subDirectory, final long minSize, final long maxSize) {
+            this.profileName = profileName;
+            this.subDirectory = subDirectory;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Get the profile to use.
+         *
+         * @return The profile name
+         * @since 26.10.19
+         */
+        public String getProfileName() {
+            return this.profileName;
+        }
+
+        /**
+         * Check if an upload matches this rule. A size condition
+         * never matches an upload of unknown size.
+         *
+         * @param fileSubDirectory The subdirectory of the file
+         * @param contentLength    The size of the file, or {@code -1} if unknown
+         * @return {@code true} if the rule matches
+         * @since 26.10.19
+         */
+        public boolean matches(final String fileSubDirectory, final long contentLength) {
+            if (this.subDirectory != null && !this.subDirectory.equals(fileSubDirectory)) {
+                return false;
+            }
+            if (this.minSize >= 0 && (contentLength < 0 || contentLength < this.minSize)) {
+                return false;
+            }
+            return this.maxSize < 0 || (contentLength >= 0 && contentLength <= this.maxSize);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Provides the {@code S3ProfileRegistry} built by the module
+ * initializer, making it injectable.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @see S3ProfileRegistry
+ * @since 26.10.19
+ */
+@Singleton
+public final class S3ProfileRegistryProvider implements Provider<S3ProfileRegistry> {
+
+    /**
+     * The module initializer.
+     *
+     * @since 26.10.19
+     */
+    private final AmazonS3ModuleInitializer initializer;
+
+    /**
+     * Create a simple instance of {@code S3ProfileRegistryProvider}.
+     *
+     * @param initializer The module initializer
+     * @since 26.10.19
+     */
+    @Inject
+    public S3ProfileRegistryProvider(final AmazonS3ModuleInitializer initializer) {
+        this.initializer = initializer;
+    }
+
+    @Override
+    public S3ProfileRegistry get() {
+        return this.initializer.getProfileRegistry();
+    }
+}
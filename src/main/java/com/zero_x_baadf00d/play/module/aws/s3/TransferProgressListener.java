@@ -0,0 +1,46 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3;
+
+/**
+ * Receives the progress of a transfer handled by the {@code TransferScheduler}.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @see TransferScheduler
+ * @since 26.10.19
+ */
+@FunctionalInterface
+public interface TransferProgressListener {
+
+    /**
+     * Called each time a chunk of the transfer has been read.
+     *
+     * @param operation        The kind of transfer
+     * @param transferredBytes The number of bytes transferred so far
+     * @param totalBytes       The expected size of the transfer, or {@code -1} if unknown
+     * @since 26.10.19
+     */
+    void onProgress(final TransferScheduler.Operation operation, final long transferredBytes, final long totalBytes);
+}
@@ -0,0 +1,596 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shapes the bandwidth used by the transfers of this node. Each transfer
+ * is limited by a global byte rate and by the byte rate of its operation.
+ * Pending chunks are served by weighted fair queuing: every transfer is
+ * a flow and chunks are granted in the order of their virtual finish
+ * time, so a small object never waits behind all the remaining chunks
+ * of a large one.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @since 26.10.19
+ */
+public final class TransferScheduler {
+
+    /**
+     * Default size of the chunks granted to a transfer.
+     *
+     * @since 26.10.19
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 16384;
+
+    /**
+     * Maximum number of bytes granted at once to a transfer.
+     *
+     * @since 26.10.19
+     */
+    private final int chunkSize;
+
+    /**
+     * Limit shared by all the transfers.
+     *
+     * @since 26.10.19
+     */
+    private final TokenBucket globalBucket;
+
+    /**
+     * Limit of each operation.
+     *
+     * @since 26.10.19
+     */
+    private final Map<Operation, TokenBucket> operationBuckets;
+
+    /**
+     * Weight of each operation.
+     *
+     * @since 26.10.19
+     */
+    private final Map<Operation, Integer> operationWeights;
+
+    /**
+     * Number of opened transfers per operation.
+     *
+     * @since 26.10.19
+     */
+    private final Map<Operation, AtomicInteger> activeTransfers;
+
+    /**
+     * Number of bytes transferred per operation.
+     *
+     * @since 26.10.19
+     */
+    private final Map<Operation, AtomicLong> transferredBytes;
+
+    /**
+     * Chunks waiting for bandwidth, ordered by virtual finish time.
+     *
+     * @since 26.10.19
+     */
+    private final NavigableSet<Chunk> pendingChunks;
+
+    /**
+     * Guards the buckets and the pending chunks.
+     *
+     * @since 26.10.19
+     */
+    private final ReentrantLock lock;
+
+    /**
+     * Signaled each time bandwidth has been granted.
+     *
+     * @since 26.10.19
+     */
+    private final Condition bandwidthGranted;
+
+    /**
+     * {@code true} if no limit is configured at all.
+     *
+     * @since 26.10.19
+     */
+    private final boolean unlimited;
+
+    /**
+     * Current virtual time of the fair queue.
+     *
+     * @since 26.10.19
+     */
+    private double virtualTime;
+
+    /**
+     * Sequence used to break ties between chunks.
+     *
+     * @since 26.10.19
+     */
+    private long sequence;
+
+    /**
+     * Create a new instance of {@code TransferScheduler}. A limit lower
+     * or equal to zero means unlimited.
+     *
+     * @param globalBytesPerSecond   The byte rate shared by all transfers
+     * @param uploadBytesPerSecond   The byte rate of the uploads
+     * @param downloadBytesPerSecond The byte rate of the downloads
+     * @param uploadWeight           The weight of each upload in the fair queue
+     * @param downloadWeight         The weight of each download in the fair queue
+     * @param chunkSize              The maximum number of bytes granted at once
+     * @since 26.10.19
+     */
+    public TransferScheduler(final long globalBytesPerSecond, final long uploadBytesPerSecond, final long downloadBytesPerSecond,
+                             final int uploadWeight, final int downloadWeight, final int chunkSize) {
+        if (uploadWeight <= 0 || downloadWeight <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("Weights and chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.globalBucket = new TokenBucket(globalBytesPerSecond, chunkSize);
+        this.operationBuckets = new EnumMap<>(Operation.class);
+        this.operationBuckets.put(Operation.UPLOAD, new TokenBucket(uploadBytesPerSecond, chunkSize));
+        this.operationBuckets.put(Operation.DOWNLOAD, new TokenBucket(downloadBytesPerSecond, chunkSize));
+        this.operationWeights = new EnumMap<>(Operation.class);
+        this.operationWeights.put(Operation.UPLOAD, uploadWeight);
+        this.operationWeights.put(Operation.DOWNLOAD, downloadWeight);
+        this.activeTransfers = new EnumMap<>(Operation.class);
+        this.transferredBytes = new EnumMap<>(Operation.class);
+        for (final Operation operation : Operation.values()) {
+            this.activeTransfers.put(operation, new AtomicInteger());
+            this.transferredBytes.put(operation, new AtomicLong());
+        }
+        this.pendingChunks = new ConcurrentSkipListSet<>(
+            Comparator.comparingDouble((Chunk c) -> c.finishTag).thenComparingLong(c -> c.sequence)
+        );
+        this.lock = new ReentrantLock();
+        this.bandwidthGranted = this.lock.newCondition();
+        this.unlimited = this.globalBucket.isUnlimited()
+            && this.operationBuckets.values().stream().allMatch(TokenBucket::isUnlimited);
+    }
+
+    /**
+     * Create a new instance of {@code TransferScheduler} without any limit.
+     * Transfers are only accounted.
+     *
+     * @since 26.10.19
+     */
+    public TransferScheduler() {
+        this(0, 0, 0, 1, 1, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Wrap the given stream so that reading it goes through this scheduler.
+     * Closing the returned stream ends the transfer.
+     *
+     * @param operation      The kind of transfer
+     * @param inputStream    The stream to wrap
+     * @param expectedLength The expected size of the transfer, or {@code -1} if unknown
+     * @param listener       The progress listener, can be {@code null}
+     * @return The scheduled stream
+     * @since 26.10.19
+     */
+    public InputStream schedule(final Operation operation, final InputStream inputStream,
+                                final long expectedLength, final TransferProgressListener listener) {
+        return new ScheduledInputStream(operation, inputStream, expectedLength, listener);
+    }
+
+    /**
+     * Get the number of chunks waiting for bandwidth.
+     *
+     * @return The number of waiting chunks
+     * @since 26.10.19
+     */
+    public int getQueueDepth() {
+        return this.pendingChunks.size();
+    }
+
+    /**
+     * Get the number of chunks of the given operation waiting for bandwidth.
+     *
+     * @param operation The kind of transfer
+     * @return The number of waiting chunks
+     * @since 26.10.19
+     */
+    public int getQueueDepth(final Operation operation) {
+        return (int) this.pendingChunks.stream().filter(c -> c.transfer.operation == operation).count();
+    }
+
+    /**
+     * Get the number of opened transfers of the given operation.
+     *
+     * @param operation The kind of transfer
+     * @return The number of opened transfers
+     * @since 26.10.19
+     */
+    public int getActiveTransfers(final Operation operation) {
+        return this.activeTransfers.get(operation).get();
+    }
+
+    /**
+     * Get the number of bytes transferred by the given operation since startup.
+     *
+     * @param operation The kind of transfer
+     * @return The number of bytes transferred
+     * @since 26.10.19
+     */
+    public long getTransferredBytes(final Operation operation) {
+        return this.transferredBytes.get(operation).get();
+    }
+
+    /**
+     * Block until the given number of bytes can be transferred.
+     *
+     * @param transfer The transfer requesting bandwidth
+     * @param length   The number of bytes to transfer
+     * @throws InterruptedIOException If the thread has been interrupted while waiting
+     * @since 26.10.19
+     */
+    private void acquire(final ScheduledInputStream transfer, final int length) throws InterruptedIOException {
+        if (this.unlimited) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            final double startTag = Math.max(this.virtualTime, transfer.lastFinishTag);
+            final Chunk chunk = new Chunk(transfer, length, startTag, startTag + (double) length / transfer.weight, this.sequence++);
+            transfer.lastFinishTag = chunk.finishTag;
+            this.pendingChunks.add(chunk);
+            while (!chunk.granted) {
+                final long waitNanos = this.dispatch();
+                if (!chunk.granted) {
+                    try {
+                        if (waitNanos > 0) {
+                            this.bandwidthGranted.awaitNanos(waitNanos);
+                        } else {
+                            this.bandwidthGranted.await();
+                        }
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        if (!chunk.granted) {
+                            this.pendingChunks.remove(chunk);
+                            this.bandwidthGranted.signalAll();
+                            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+                        }
+                    }
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Give back bandwidth acquired but not used.
+     *
+     * @param operation The kind of transfer
+     * @param length    The number of unused bytes
+     * @since 26.10.19
+     */
+    private void release(final Operation operation, final int length) {
+        if (this.unlimited || length <= 0) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            this.globalBucket.give(length);
+            this.operationBuckets.get(operation).give(length);
+            this.bandwidthGranted.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Grant bandwidth to the pending chunks, in the fair queue order. The
+     * lock must be held by the caller.
+     *
+     * @return The number of nanoseconds before the next chunk could be granted
+     * @since 26.10.19
+     */
+    private long dispatch() {
+        final long now = System.nanoTime();
+        this.globalBucket.refill(now);
+        this.operationBuckets.values().forEach(bucket -> bucket.refill(now));
+
+        final Set<Operation> blockedOperations = EnumSet.noneOf(Operation.class);
+        final Iterator<Chunk> iterator = this.pendingChunks.iterator();
+        long waitNanos = 0;
+        boolean granted = false;
+        while (iterator.hasNext()) {
+            final Chunk chunk = iterator.next();
+            final Operation operation = chunk.transfer.operation;
+            if (blockedOperations.contains(operation)) {
+                continue;
+            }
+            if (!this.globalBucket.canConsume(chunk.length)) {
+                waitNanos = TransferScheduler.earliest(waitNanos, this.globalBucket.nanosUntil(chunk.length));
+                break;
+            }
+            final TokenBucket operationBucket = this.operationBuckets.get(operation);
+            if (!operationBucket.canConsume(chunk.length)) {
+                waitNanos = TransferScheduler.earliest(waitNanos, operationBucket.nanosUntil(chunk.length));
+                blockedOperations.add(operation);
+                continue;
+            }
+            this.globalBucket.consume(chunk.length);
+            operationBucket.consume(chunk.length);
+            this.virtualTime = Math.max(this.virtualTime, chunk.startTag);
+            chunk.granted = true;
+            iterator.remove();
+            granted = true;
+        }
+        if (granted) {
+            this.bandwidthGranted.signalAll();
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Get the earliest of two positive delays, zero meaning no delay known.
+     *
+     * @param current   The current delay
+     * @param candidate The candidate delay
+     * @return The earliest delay
+     * @since 26.10.19
+     */
+    private static long earliest(final long current, final long candidate) {
+        if (current <= 0) {
+            return candidate;
+        }
+        return Math.min(current, candidate);
+    }
+
+    /**
+     * Kind of transfer.
+     *
+     * @since 26.10.19
+     */
+    public enum Operation {
+
+        /**
+         * Object sent to PlayS3.
+         *
+         * @since 26.10.19
+         */
+        UPLOAD,
+
+        /**
+         * Object read from PlayS3.
+         *
+         * @since 26.10.19
+         */
+        DOWNLOAD
+    }
+
+    /**
+     * Token bucket refilled at a constant byte rate.
+     *
+     * @since 26.10.19
+     */
+    private static final class TokenBucket {
+
+        /**
+         * The byte rate, unlimited if lower or equal to zero.
+         *
+         * @since 26.10.19
+         */
+        private final long bytesPerSecond;
+
+        /**
+         * The maximum number of tokens.
+         *
+         * @since 26.10.19
+         */
+        private final double capacity;
+
+        /**
+         * The available tokens.
+         *
+         * @since 26.10.19
+         */
+        private double tokens;
+
+        /**
+         * The last time the bucket has been refilled.
+         *
+         * @since 26.10.19
+         */
+        private long lastRefill;
+
+        /**
+         * Build a new full bucket.
+         *
+         * @param bytesPerSecond The byte rate
+         * @param chunkSize      The maximum number of bytes consumed at once
+         * @since 26.10.19
+         */
+        TokenBucket(final long bytesPerSecond, final int chunkSize) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.capacity = Math.max(bytesPerSecond, chunkSize);
+            this.tokens = this.capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        boolean isUnlimited() {
+            return this.bytesPerSecond <= 0;
+        }
+
+        void refill(final long now) {
+            if (!this.isUnlimited()) {
+                this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.bytesPerSecond / 1e9);
+            }
+            this.lastRefill = now;
+        }
+
+        boolean canConsume(final int length) {
+            return this.isUnlimited() || this.tokens >= length;
+        }
+
+        void consume(final int length) {
+            if (!this.isUnlimited()) {
+                this.tokens -= length;
+            }
+        }
+
+        void give(final int length) {
+            if (!this.isUnlimited()) {
+                this.tokens = Math.min(this.capacity, this.tokens + length);
+            }
+        }
+
+        long nanosUntil(final int length) {
+            if (this.canConsume(length)) {
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((length - this.tokens) * TimeUnit.SECONDS.toNanos(1) / this.bytesPerSecond));
+        }
+    }
+
+    /**
+     * Chunk of a transfer waiting for bandwidth.
+     *
+     * @since 26.10.19
+     */
+    private static final class Chunk {
+
+        private final ScheduledInputStream transfer;
+        private final int length;
+        private final double startTag;
+        private final double finishTag;
+        private final long sequence;
+        private boolean granted;
+
+        Chunk(final ScheduledInputStream transfer, final int length, final double startTag, final double finishTag, final long sequence) {
+            this.transfer = transfer;
+            this.length = length;
+            this.startTag = startTag;
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Stream throttled by this scheduler.
+     *
+     * @since 26.10.19
+     */
+    private final class ScheduledInputStream extends FilterInputStream {
+
+        private final Operation operation;
+        private final int weight;
+        private final long expectedLength;
+        private final TransferProgressListener listener;
+        private long position;
+        private long markedPosition;
+        private long highestPosition;
+        private double lastFinishTag;
+        private boolean closed;
+
+        ScheduledInputStream(final Operation operation, final InputStream in, final long expectedLength, final TransferProgressListener listener) {
+            super(in);
+            this.operation = operation;
+            this.weight = TransferScheduler.this.operationWeights.get(operation);
+            this.expectedLength = expectedLength;
+            this.listener = listener;
+            TransferScheduler.this.activeTransfers.get(operation).incrementAndGet();
+        }
+
+        @Override
+        public int read() throws IOException {
+            TransferScheduler.this.acquire(this, 1);
+            final int value = super.read();
+            if (value < 0) {
+                TransferScheduler.this.release(this.operation, 1);
+            } else {
+                this.progress(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final int allowed = Math.min(len, TransferScheduler.this.chunkSize);
+            TransferScheduler.this.acquire(this, allowed);
+            final int count = super.read(b, off, allowed);
+            TransferScheduler.this.release(this.operation, allowed - Math.max(count, 0));
+            if (count > 0) {
+                this.progress(count);
+            }
+            return count;
+        }
+
+        @Override
+        public synchronized void mark(final int readLimit) {
+            super.mark(readLimit);
+            this.markedPosition = this.position;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            super.reset();
+            this.position = this.markedPosition;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.closed) {
+                this.closed = true;
+                TransferScheduler.this.activeTransfers.get(this.operation).decrementAndGet();
+            }
+            super.close();
+        }
+
+        private void progress(final int count) {
+            // Bytes read again after a reset (ie: SDK retry) are not counted twice
+            this.position += count;
+            if (this.position > this.highestPosition) {
+                TransferScheduler.this.transferredBytes.get(this.operation).addAndGet(this.position - this.highestPosition);
+                this.highestPosition = this.position;
+                if (this.listener != null) {
+                    this.listener.onProgress(this.operation, this.highestPosition, this.expectedLength);
+                }
+            }
+        }
+    }
+}
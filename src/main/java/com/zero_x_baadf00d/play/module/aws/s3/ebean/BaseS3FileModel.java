@@ -24,8 +24,13 @@
 package com.zero_x_baadf00d.play.module.aws.s3.ebean;
 
 import com.amazonaws.services.s3.model.*;
+import com.amazonaws.util.IOUtils;
 import com.fasterxml.uuid.Generators;
+import com.zero_x_baadf00d.play.module.aws.s3.PackWriter;
 import com.zero_x_baadf00d.play.module.aws.s3.PlayS3;
+import com.zero_x_baadf00d.play.module.aws.s3.S3Profile;
+import com.zero_x_baadf00d.play.module.aws.s3.TransferProgressListener;
+import com.zero_x_baadf00d.play.module.aws.s3.TransferScheduler;
 import io.ebean.Model;
 import play.Logger;
 
@@ -33,7 +38,9 @@ import javax.persistence.*;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 
 /**
  * This abstract class provides all the necessary foundations for
@@ -41,7 +48,7 @@ import java.util.UUID;
  *
  * @author Thibault Meyer
  * @author Pierre Adam
- * @version 17.02.02
+ * @version 26.10.19
  * @since 16.03.13
  */
 @MappedSuperclass
@@ -81,6 +88,15 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
     @Transient
     protected InputStream objectData;
 
+    /**
+     * Listener notified of the progress of the
+     * transfers of this file.
+     *
+     * @since 26.10.19
+     */
+    @Transient
+    protected TransferProgressListener progressListener;
+
     /**
      * Is this file private or not. Private file can only be accessed
      * by this application.
@@ -106,6 +122,40 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
     @Column(name = "bucket")
     protected String bucket;
 
+    /**
+     * Name of the profile holding the file. Null
+     * means the default profile.
+     *
+     * @since 26.10.19
+     */
+    @Column(name = "profile", columnDefinition = "VARCHAR(50)")
+    protected String profile;
+
+    /**
+     * Key of the pack holding this file. Null if the
+     * file is stored as its own object.
+     *
+     * @since 26.10.19
+     */
+    @Column(name = "pack_key", columnDefinition = "VARCHAR(255)")
+    protected String packKey;
+
+    /**
+     * Offset of this file in its pack.
+     *
+     * @since 26.10.19
+     */
+    @Column(name = "pack_offset")
+    protected Long packOffset;
+
+    /**
+     * Length of this file in its pack.
+     *
+     * @since 26.10.19
+     */
+    @Column(name = "pack_length")
+    protected Long packLength;
+
     /**
      * Get the ID of this {@code S3File} entry.
      *
@@ -215,6 +265,69 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
         }
     }
 
+    /**
+     * Get the name of the profile holding the file.
+     *
+     * @return The profile name, otherwise, null for the default profile
+     * @since 26.10.19
+     */
+    public String getProfile() {
+        return this.profile;
+    }
+
+    /**
+     * Set the name of the profile where the file will be saved.
+     * If not set, the profile is chosen by the routing rules.
+     *
+     * @param profile The profile name to use
+     * @since 26.10.19
+     */
+    public void setProfile(final String profile) {
+        if (this.id == null) {
+            this.profile = profile == null ? null : profile.trim();
+        }
+    }
+
+    /**
+     * Is this file stored in a pack?
+     *
+     * @return {@code true} if packed, otherwise, {@code false}
+     * @since 26.10.19
+     */
+    public boolean isPacked() {
+        return this.packKey != null;
+    }
+
+    /**
+     * Get the key of the pack holding this file.
+     *
+     * @return The pack key, otherwise, null
+     * @since 26.10.19
+     */
+    public String getPackKey() {
+        return this.packKey;
+    }
+
+    /**
+     * Get the offset of this file in its pack.
+     *
+     * @return The offset in bytes, otherwise, null
+     * @since 26.10.19
+     */
+    public Long getPackOffset() {
+        return this.packOffset;
+    }
+
+    /**
+     * Get the length of this file in its pack.
+     *
+     * @return The length in bytes, otherwise, null
+     * @since 26.10.19
+     */
+    public Long getPackLength() {
+        return this.packLength;
+    }
+
     /**
      * Set the object to send to PlayS3.
      *
@@ -252,6 +365,17 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
         }
     }
 
+    /**
+     * Set the listener notified of the progress of the upload
+     * and of the downloads of this file.
+     *
+     * @param progressListener The listener to use, can be {@code null}
+     * @since 26.10.19
+     */
+    public void setProgressListener(final TransferProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
     /**
      * Get the public URL of this PlayS3 file.
      *
@@ -260,7 +384,7 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
      * @since 16.03.13
      */
     public URL getUrl() throws MalformedURLException {
-        return new URL(PlayS3.getPublicUrl() + this.bucket + "/" + this.getActualFileName());
+        return new URL(this.getS3Profile().getPublicUrl() + this.bucket + "/" + this.getActualFileName());
     }
 
     /**
@@ -274,7 +398,7 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
             return null;
         }
         try {
-            return new URL(PlayS3.getPublicUrl() + this.bucket + "/" + this.getActualFileName()).toString();
+            return new URL(this.getS3Profile().getPublicUrl() + this.bucket + "/" + this.getActualFileName()).toString();
         } catch (final MalformedURLException e) {
             return null;
         }
@@ -293,6 +417,16 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
         return String.format("%s/%s", this.subDirectory, this.id);
     }
 
+    /**
+     * Get the profile holding the file.
+     *
+     * @return The profile
+     * @since 26.10.19
+     */
+    protected S3Profile getS3Profile() {
+        return PlayS3.getProfileRegistry().get(this.profile);
+    }
+
     /**
      * Save the current object. The file will be uploaded to PlayS3 bucket.
      *
@@ -307,19 +441,21 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
             Logger.error("Could not save PlayS3 file because amazonS3 variable is null");
             throw new RuntimeException("Could not save");
         } else {
-            this.bucket = PlayS3.getBucketName();
             if (this.subDirectory == null) {
                 this.subDirectory = "";
             }
             this.subDirectory = this.subDirectory.trim();
 
-            // Set cache control and server side encryption
-            final ObjectMetadata objMetaData = new ObjectMetadata();
-            objMetaData.setContentType(this.contentType);
-            objMetaData.setCacheControl("max-age=315360000, public");
-            objMetaData.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+            // Set cache control and server side encryption. A stream reporting
+            // nothing available has an unknown size, it must not be sent as empty
+            ObjectMetadata objMetaData = this.createObjectMetadata();
+            long contentLength = -1;
             try {
-                objMetaData.setContentLength(this.objectData.available());
+                final int available = this.objectData.available();
+                if (available > 0) {
+                    contentLength = available;
+                    objMetaData.setContentLength(contentLength);
+                }
             } catch (final IOException ex) {
                 Logger.warn("Can't retrieve stream available size", ex);
             } finally {
@@ -332,16 +468,43 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
                 }
             }
 
+            // Choose the profile holding the file
+            final S3Profile s3Profile = this.profile == null
+                ? PlayS3.getProfileRegistry().route(this.subDirectory, contentLength)
+                : PlayS3.getProfileRegistry().get(this.profile);
+            this.profile = s3Profile.getName();
+            this.bucket = s3Profile.getBucketName();
+
+            // Small private files are appended to a pack
+            final PackWriter packWriter = PlayS3.getPackWriter();
+            if (packWriter != null && this.isPrivate && contentLength > 0 && contentLength <= packWriter.getThreshold()) {
+                if (this.appendToPack(packWriter)) {
+                    super.save();
+                    return;
+                }
+
+                // The stream is larger than reported, sending the stale length would truncate it
+                objMetaData = this.createObjectMetadata();
+                contentLength = -1;
+            }
+
             // Upload file to PlayS3
-            final PutObjectRequest putObjectRequest = new PutObjectRequest(this.bucket, this.getActualFileName(), this.objectData, objMetaData);
+            final InputStream uploadData = PlayS3.getTransferScheduler().schedule(
+                TransferScheduler.Operation.UPLOAD,
+                this.objectData,
+                contentLength,
+                this.progressListener
+            );
+            final PutObjectRequest putObjectRequest = new PutObjectRequest(this.bucket, this.getActualFileName(), uploadData, objMetaData);
             putObjectRequest.withCannedAcl(this.isPrivate ? CannedAccessControlList.Private : CannedAccessControlList.PublicRead);
 
-            PlayS3.getAmazonS3().putObject(putObjectRequest);
             try {
-                if (this.objectData != null) {
-                    this.objectData.close();
+                s3Profile.getAmazonS3().putObject(putObjectRequest);
+            } finally {
+                try {
+                    uploadData.close();
+                } catch (final IOException ignore) {
                 }
-            } catch (final IOException ignore) {
             }
 
             // Save object on database
@@ -350,7 +513,89 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
     }
 
     /**
-     * Delete the remote file.
+     * Create the metadata of a new upload, without content length.
+     *
+     * @return The object metadata
+     * @since 26.10.19
+     */
+    private ObjectMetadata createObjectMetadata() {
+        final ObjectMetadata objMetaData = new ObjectMetadata();
+        objMetaData.setContentType(this.contentType);
+        objMetaData.setCacheControl("max-age=315360000, public");
+        objMetaData.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        return objMetaData;
+    }
+
+    /**
+     * Append the object data to the current pack and wait for the pack to be
+     * uploaded. If the data turns out to be larger than the packing threshold,
+     * nothing is appended and the object data remains readable from the start.
+     *
+     * @param packWriter The pack writer to use
+     * @return {@code true} if the data has been packed, otherwise, {@code false}
+     * @since 26.10.19
+     */
+    protected boolean appendToPack(final PackWriter packWriter) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            final byte[] chunk = new byte[4096];
+            int count = this.objectData.read(chunk);
+            while (count > 0 && buffer.size() <= packWriter.getThreshold()) {
+                buffer.write(chunk, 0, count);
+                count = this.objectData.read(chunk);
+            }
+            if (count > 0) {
+                buffer.write(chunk, 0, count);
+            }
+        } catch (final IOException ex) {
+            Logger.error("Can't read object data", ex);
+            throw new RuntimeException("Could not save", ex);
+        }
+        final byte[] data = buffer.toByteArray();
+        if (data.length > packWriter.getThreshold()) {
+            this.objectData = new SequenceInputStream(new ByteArrayInputStream(data), this.objectData);
+            return false;
+        }
+
+        final PackWriter.PackEntry entry;
+        try {
+            entry = packWriter.append(this.getS3Profile(), this.getClass().getName(), data).join();
+        } catch (final CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        } finally {
+            try {
+                this.objectData.close();
+            } catch (final IOException ignore) {
+            }
+        }
+        this.packKey = entry.getPackKey();
+        this.packOffset = entry.getOffset();
+        this.packLength = entry.getLength();
+        if (this.progressListener != null) {
+            this.progressListener.onProgress(TransferScheduler.Operation.UPLOAD, data.length, data.length);
+        }
+        return true;
+    }
+
+    /**
+     * Move this file to another pack. Used by the compactor once
+     * the content has been copied to the new pack.
+     *
+     * @param newPackKey    The key of the new pack
+     * @param newPackOffset The offset of this file in the new pack
+     * @since 26.10.19
+     */
+    void relocate(final String newPackKey, final long newPackOffset) {
+        this.packKey = newPackKey;
+        this.packOffset = newPackOffset;
+    }
+
+    /**
+     * Delete the remote file. Packed files are not deleted from
+     * their pack, the space is reclaimed by the {@code PackCompactor}.
      *
      * @since 16.03.13
      */
@@ -359,9 +604,9 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
         if (!PlayS3.isReady()) {
             Logger.error("Could not delete PlayS3 file because amazonS3 variable is null");
             throw new RuntimeException("Could not delete");
-        } else {
+        } else if (this.packKey == null) {
             try {
-                PlayS3.getAmazonS3().deleteObject(this.bucket, getActualFileName());
+                this.getS3Profile().getAmazonS3().deleteObject(this.bucket, getActualFileName());
             } catch (final AmazonS3Exception ex) {
                 Logger.warn("Something goes wrong with Amazon PlayS3", ex);
             }
@@ -381,10 +626,72 @@ public abstract class BaseS3FileModel extends Model implements Cloneable {
             Logger.error("Could not get PlayS3 file content because amazonS3 variable is null");
             throw new RuntimeException("Could not get file content");
         }
-        final S3Object obj = PlayS3.getAmazonS3().getObject(this.bucket, getActualFileName());
+        final S3Object obj;
+        if (this.packKey != null && this.packLength == 0) {
+            // An empty range is not valid, the whole pack would be returned
+            return new ByteArrayInputStream(new byte[0]);
+        } else if (this.packKey != null) {
+            obj = this.getS3Profile().getAmazonS3().getObject(
+                new GetObjectRequest(this.bucket, this.packKey).withRange(this.packOffset, this.packOffset + this.packLength - 1)
+            );
+        } else {
+            obj = this.getS3Profile().getAmazonS3().getObject(this.bucket, getActualFileName());
+        }
         if (obj != null) {
-            return obj.getObjectContent();
+            return PlayS3.getTransferScheduler().schedule(
+                TransferScheduler.Operation.DOWNLOAD,
+                obj.getObjectContent(),
+                obj.getObjectMetadata().getContentLength(),
+                this.progressListener
+            );
         }
         return null;
     }
+
+    /**
+     * Get the content of many files at once. Packed files sharing the same
+     * pack are served from a single request covering all of them. In case
+     * of error, the exception is propagated and remaining files are skipped.
+     *
+     * @param files    The files to read
+     * @param consumer Receives each file with its content
+     * @param <T>      The type of the files
+     * @since 26.10.19
+     */
+    public static <T extends BaseS3FileModel> void readFileContents(final Collection<T> files, final BiConsumer<T, InputStream> consumer) {
+        final Map<String, List<T>> packs = new LinkedHashMap<>();
+        for (final T file : files) {
+            if (file.packKey == null) {
+                consumer.accept(file, file.getFileContent());
+            } else {
+                packs.computeIfAbsent(file.profile + "/" + file.bucket + "/" + file.packKey, key -> new ArrayList<>()).add(file);
+            }
+        }
+        for (final List<T> entries : packs.values()) {
+            final long start = entries.stream().mapToLong(file -> file.packOffset).min().orElse(0);
+            final long end = entries.stream().mapToLong(file -> file.packOffset + file.packLength).max().orElse(0);
+            if (entries.size() == 1 || end == start) {
+                entries.forEach(file -> consumer.accept(file, file.getFileContent()));
+                continue;
+            }
+            final S3Object obj = entries.get(0).getS3Profile().getAmazonS3().getObject(
+                new GetObjectRequest(entries.get(0).bucket, entries.get(0).packKey).withRange(start, end - 1)
+            );
+            final byte[] content;
+            try (InputStream packData = PlayS3.getTransferScheduler().schedule(
+                TransferScheduler.Operation.DOWNLOAD,
+                obj.getObjectContent(),
+                end - start,
+                null
+            )) {
+                content = IOUtils.toByteArray(packData);
+            } catch (final IOException ex) {
+                Logger.error("Can't read pack content", ex);
+                throw new RuntimeException("Could not get file content", ex);
+            }
+            for (final T file : entries) {
+                consumer.accept(file, new ByteArrayInputStream(content, (int) (file.packOffset - start), file.packLength.intValue()));
+            }
+        }
+    }
 }
@@ -0,0 +1,270 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3.ebean;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.amazonaws.util.IOUtils;
+import com.fasterxml.uuid.Generators;
+import com.zero_x_baadf00d.play.module.aws.s3.PackWriter;
+import com.zero_x_baadf00d.play.module.aws.s3.PlayS3;
+import com.zero_x_baadf00d.play.module.aws.s3.S3Profile;
+import com.zero_x_baadf00d.play.module.aws.s3.TransferScheduler;
+import io.ebean.ExpressionList;
+import io.ebean.Finder;
+import play.Logger;
+
+import javax.persistence.PersistenceException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Reclaims the space used by deleted entries of the packs of a model.
+ * Packs where the live entries use less than the configured ratio are
+ * rewritten and the old pack is marked as obsolete. Marking the pack
+ * refreshes its modification date, so it is only deleted by a later
+ * run, once the grace period has passed and no live entry remains.
+ * Readers holding a row loaded before a rewrite can still read it
+ * during the grace period.
+ *
+ * @param <T> The type of the model
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @see PackWriter
+ * @since 26.10.19
+ */
+public final class PackCompactor<T extends BaseS3FileModel> implements Runnable {
+
+    /**
+     * User metadata set on an obsolete pack, holding the key of the pack replacing it.
+     *
+     * @since 26.10.19
+     */
+    public static final String OBSOLETE_METADATA = "play-s3-replaced-by";
+
+    /**
+     * The model class.
+     *
+     * @since 26.10.19
+     */
+    private final Class<T> modelClass;
+
+    /**
+     * Helpers to request model.
+     *
+     * @since 26.10.19
+     */
+    private final Finder<UUID, T> finder;
+
+    /**
+     * Packs where the live entries use less than this ratio are rewritten.
+     *
+     * @since 26.10.19
+     */
+    private final double minLiveRatio;
+
+    /**
+     * Packs younger than this period are never compacted.
+     *
+     * @since 26.10.19
+     */
+    private final long gracePeriodMillis;
+
+    /**
+     * Create a new instance of {@code PackCompactor}.
+     *
+     * @param modelClass        The model class
+     * @param minLiveRatio      Packs where the live entries use less than this ratio are rewritten
+     * @param gracePeriodMillis Packs younger than this period are never compacted
+     * @since 26.10.19
+     */
+    public PackCompactor(final Class<T> modelClass, final double minLiveRatio, final long gracePeriodMillis) {
+        this.modelClass = modelClass;
+        this.finder = new Finder<>(modelClass);
+        this.minLiveRatio = minLiveRatio;
+        this.gracePeriodMillis = gracePeriodMillis;
+    }
+
+    @Override
+    public void run() {
+        try {
+            this.compact();
+        } catch (final RuntimeException ex) {
+            Logger.error("Could not compact PlayS3 packs of " + this.modelClass.getName(), ex);
+        }
+    }
+
+    /**
+     * Compact all the packs of the model.
+     *
+     * @return The number of bytes deleted from the buckets
+     * @since 26.10.19
+     */
+    public long compact() {
+        final PackWriter packWriter = PlayS3.getPackWriter();
+        if (!PlayS3.isReady() || packWriter == null) {
+            return 0;
+        }
+        final long olderThan = System.currentTimeMillis() - this.gracePeriodMillis;
+        long reclaimed = 0;
+        for (final S3Profile profile : PlayS3.getProfileRegistry().getProfiles()) {
+            final ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(profile.getBucketName())
+                .withPrefix(packWriter.getPackPrefix(this.modelClass.getName()));
+            ListObjectsV2Result result;
+            do {
+                result = profile.getAmazonS3().listObjectsV2(request);
+                for (final S3ObjectSummary summary : result.getObjectSummaries()) {
+                    if (summary.getLastModified().getTime() < olderThan) {
+                        try {
+                            reclaimed += this.compact(profile, summary, packWriter);
+                        } catch (final RuntimeException ex) {
+                            Logger.warn("Can't compact PlayS3 pack " + summary.getKey(), ex);
+                        }
+                    }
+                }
+                request.setContinuationToken(result.getNextContinuationToken());
+            } while (result.isTruncated());
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Compact the given pack.
+     *
+     * @param profile    The profile holding the pack
+     * @param summary    The pack to compact
+     * @param packWriter The pack writer
+     * @return The number of bytes deleted from the bucket
+     * @since 26.10.19
+     */
+    private long compact(final S3Profile profile, final S3ObjectSummary summary, final PackWriter packWriter) {
+        // Only the rows of this profile and bucket are moved, a replica may hold the same keys
+        final AmazonS3 amazonS3 = profile.getAmazonS3();
+        final ExpressionList<T> query = this.finder.query()
+            .where()
+            .eq("bucket", summary.getBucketName())
+            .eq("packKey", summary.getKey());
+        if (S3Profile.DEFAULT_NAME.equals(profile.getName())) {
+            // Rows saved before the profiles were introduced have no profile
+            query.or()
+                .eq("profile", profile.getName())
+                .isNull("profile")
+                .endOr();
+        } else {
+            query.eq("profile", profile.getName());
+        }
+        final List<T> entries = query
+            .order()
+            .asc("packOffset")
+            .findList();
+        final long liveBytes = entries.stream().mapToLong(BaseS3FileModel::getPackLength).sum();
+        if (entries.isEmpty()) {
+            // A pack written by another profile (ie: a replica) is not ours to delete
+            final String owner = amazonS3.getObjectMetadata(summary.getBucketName(), summary.getKey())
+                .getUserMetaDataOf(PackWriter.PROFILE_METADATA);
+            if (!profile.getName().equals(owner == null ? S3Profile.DEFAULT_NAME : owner)) {
+                return 0;
+            }
+            amazonS3.deleteObject(summary.getBucketName(), summary.getKey());
+            return summary.getSize();
+        }
+        if (liveBytes >= summary.getSize() * this.minLiveRatio) {
+            return 0;
+        }
+
+        // Copy the live entries to a new pack
+        final byte[] content;
+        try (S3Object obj = amazonS3.getObject(summary.getBucketName(), summary.getKey());
+             InputStream packData = PlayS3.getTransferScheduler().schedule(
+                 TransferScheduler.Operation.DOWNLOAD,
+                 obj.getObjectContent(),
+                 summary.getSize(),
+                 null
+             )) {
+            content = IOUtils.toByteArray(packData);
+        } catch (final IOException ex) {
+            Logger.warn("Can't read PlayS3 pack " + summary.getKey(), ex);
+            return 0;
+        }
+        final String newPackKey = packWriter.getPackPrefix(this.modelClass.getName()) + Generators.timeBasedGenerator().generate();
+        final ByteArrayOutputStream newContent = new ByteArrayOutputStream((int) liveBytes);
+        final List<Long> newOffsets = new ArrayList<>();
+        for (final T entry : entries) {
+            newOffsets.add((long) newContent.size());
+            newContent.write(content, entry.getPackOffset().intValue(), entry.getPackLength().intValue());
+        }
+        final ObjectMetadata objMetaData = new ObjectMetadata();
+        objMetaData.setContentType("application/octet-stream");
+        objMetaData.setContentLength(newContent.size());
+        objMetaData.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        objMetaData.addUserMetadata(PackWriter.PROFILE_METADATA, profile.getName());
+        try (InputStream uploadData = PlayS3.getTransferScheduler().schedule(
+            TransferScheduler.Operation.UPLOAD,
+            new ByteArrayInputStream(newContent.toByteArray()),
+            newContent.size(),
+            null
+        )) {
+            amazonS3.putObject(
+                new PutObjectRequest(summary.getBucketName(), newPackKey, uploadData, objMetaData)
+                    .withCannedAcl(CannedAccessControlList.Private)
+            );
+        } catch (final IOException ignore) {
+        }
+
+        // Mark the old pack before moving the rows. Marking refreshes its modification
+        // date, so the grace period starts now. If it fails, the rows are left untouched
+        // and the pack is not deleted; the unused new pack is reclaimed by a later run
+        final ObjectMetadata obsoleteMetaData = new ObjectMetadata();
+        obsoleteMetaData.setContentType("application/octet-stream");
+        obsoleteMetaData.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        obsoleteMetaData.addUserMetadata(PackWriter.PROFILE_METADATA, profile.getName());
+        obsoleteMetaData.addUserMetadata(PackCompactor.OBSOLETE_METADATA, newPackKey);
+        try {
+            amazonS3.copyObject(
+                new CopyObjectRequest(summary.getBucketName(), summary.getKey(), summary.getBucketName(), summary.getKey())
+                    .withNewObjectMetadata(obsoleteMetaData)
+                    .withCannedAccessControlList(CannedAccessControlList.Private)
+            );
+        } catch (final SdkClientException ex) {
+            Logger.warn("Can't mark PlayS3 pack " + summary.getKey() + " as obsolete", ex);
+            return 0;
+        }
+
+        // Point the rows to the new pack, the old one is still complete if something goes wrong
+        try {
+            for (int idx = 0; idx < entries.size(); ++idx) {
+                entries.get(idx).relocate(newPackKey, newOffsets.get(idx));
+                entries.get(idx).update();
+            }
+        } catch (final PersistenceException ex) {
+            Logger.warn("Can't move entries of PlayS3 pack " + summary.getKey(), ex);
+        }
+        return 0;
+    }
+}
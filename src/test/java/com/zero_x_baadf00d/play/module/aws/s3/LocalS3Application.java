@@ -0,0 +1,176 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3;
+
+import com.typesafe.config.ConfigFactory;
+import com.zero_x_baadf00d.play.module.aws.s3.ebean.S3FileModel;
+import com.zero_x_baadf00d.play.module.aws.s3.loadtest.LocalS3Server;
+import io.ebean.DB;
+import io.ebean.DatabaseFactory;
+import io.ebean.config.DatabaseConfig;
+import io.ebean.datasource.DataSourceConfig;
+import play.Environment;
+import play.inject.ApplicationLifecycle;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Boots the module against a {@code LocalS3Server} and an in-memory
+ * H2 database holding the {@code S3FileModel} table, as an application
+ * would. Only one instance must be open at a time.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @since 26.10.19
+ */
+public final class LocalS3Application implements AutoCloseable {
+
+    /**
+     * The bucket of the default profile.
+     *
+     * @since 26.10.19
+     */
+    public static final String BUCKET = "play-s3-test";
+
+    /**
+     * Whether the database has already been created.
+     *
+     * @since 26.10.19
+     */
+    private static boolean databaseCreated;
+
+    /**
+     * The S3 stand-in.
+     *
+     * @since 26.10.19
+     */
+    private final LocalS3Server server;
+
+    /**
+     * The hooks registered by the module.
+     *
+     * @since 26.10.19
+     */
+    private final List<Callable<? extends CompletionStage<?>>> stopHooks;
+
+    /**
+     * Start the S3 stand-in and boot the module.
+     *
+     * @param settings Settings added to the configuration pointing to the stand-in (ie: {@code aws.s3.packing.enabled})
+     * @throws IOException If the stand-in can't be started
+     * @since 26.10.19
+     */
+    public LocalS3Application(final Map<String, Object> settings) throws IOException {
+        LocalS3Application.createDatabase();
+        DB.sqlUpdate("DELETE FROM s3file").execute();
+        this.server = new LocalS3Server(0);
+        this.server.start();
+        this.stopHooks = new ArrayList<>();
+
+        final Map<String, Object> configuration = new HashMap<>();
+        configuration.put("aws.authKey", "accessKey");
+        configuration.put("aws.authSecret", "secretKey");
+        configuration.put("aws.s3.endPoint", this.server.getEndPoint());
+        configuration.put("aws.s3.signingRegion", "us-east-1");
+        configuration.put("aws.s3.withPathStyle", true);
+        configuration.put("aws.s3.bucketName", LocalS3Application.BUCKET);
+        configuration.putAll(settings);
+        new AmazonS3ModuleInitializer(new ApplicationLifecycle() {
+            @Override
+            public void addStopHook(final Callable<? extends CompletionStage<?>> hook) {
+                LocalS3Application.this.stopHooks.add(hook);
+            }
+
+            @Override
+            public play.api.inject.ApplicationLifecycle asScala() {
+                throw new UnsupportedOperationException();
+            }
+        }, Environment.simple(), ConfigFactory.parseMap(configuration));
+    }
+
+    /**
+     * Create the default database, with the table of {@code S3FileModel}.
+     *
+     * @since 26.10.19
+     */
+    private static synchronized void createDatabase() {
+        if (LocalS3Application.databaseCreated) {
+            return;
+        }
+        final DataSourceConfig dataSourceConfig = new DataSourceConfig();
+        dataSourceConfig.setDriver("org.h2.Driver");
+        dataSourceConfig.setUrl("jdbc:h2:mem:play-s3;DB_CLOSE_DELAY=-1");
+        dataSourceConfig.setUsername("sa");
+        dataSourceConfig.setPassword("");
+        final DatabaseConfig databaseConfig = new DatabaseConfig();
+        databaseConfig.setName("db");
+        databaseConfig.setDefaultServer(true);
+        databaseConfig.setRegister(true);
+        databaseConfig.setDataSourceConfig(dataSourceConfig);
+        databaseConfig.addClass(S3FileModel.class);
+        DatabaseFactory.create(databaseConfig);
+        DB.sqlUpdate("CREATE TABLE s3file ("
+            + "id UUID PRIMARY KEY, name VARCHAR(50) NOT NULL, content_type VARCHAR(20) NOT NULL,"
+            + " is_private BOOLEAN DEFAULT TRUE NOT NULL, sub_directory VARCHAR(25) DEFAULT '' NOT NULL,"
+            + " bucket VARCHAR(255), profile VARCHAR(50) NULL,"
+            + " pack_key VARCHAR(255) NULL, pack_offset BIGINT NULL, pack_length BIGINT NULL)").execute();
+        LocalS3Application.databaseCreated = true;
+    }
+
+    /**
+     * Get the S3 stand-in.
+     *
+     * @return The S3 stand-in
+     * @since 26.10.19
+     */
+    public LocalS3Server getServer() {
+        return this.server;
+    }
+
+    /**
+     * Run the stop hooks of the module and stop the S3 stand-in.
+     *
+     * @throws Exception If a stop hook fails
+     * @since 26.10.19
+     */
+    @Override
+    public void close() throws Exception {
+        try {
+            for (final Callable<? extends CompletionStage<?>> hook : this.stopHooks) {
+                hook.call().toCompletableFuture().join();
+            }
+        } finally {
+            PlayS3.profileRegistry = null;
+            PlayS3.transferScheduler = null;
+            PlayS3.packWriter = null;
+            this.server.close();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.util.IOUtils;
+import com.zero_x_baadf00d.play.module.aws.s3.loadtest.FaultProfile;
+import com.zero_x_baadf00d.play.module.aws.s3.loadtest.LocalS3Server;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * PackWriterTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @since 26.10.19
+ */
+public class PackWriterTest {
+
+    /**
+     * The bucket used by the tests.
+     *
+     * @since 26.10.19
+     */
+    private static final String BUCKET = "play-s3-test";
+
+    /**
+     * The S3 stand-in.
+     *
+     * @since 26.10.19
+     */
+    private LocalS3Server server;
+
+    /**
+     * Client without retries.
+     *
+     * @since 26.10.19
+     */
+    private AmazonS3 amazonS3;
+
+    /**
+     * The profile holding the packs.
+     *
+     * @since 26.10.19
+     */
+    private S3Profile profile;
+
+    /**
+     * Start the stand-in and create the bucket.
+     *
+     * @throws IOException If the server can't be started
+     * @since 26.10.19
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.server = new LocalS3Server(0);
+        this.server.start();
+        this.amazonS3 = AmazonS3ClientBuilder.standard()
+            .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(this.server.getEndPoint(), "us-east-1"))
+            .withPathStyleAccessEnabled(true)
+            .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("accessKey", "secretKey")))
+            .withClientConfiguration(new ClientConfiguration().withMaxErrorRetry(0))
+            .build();
+        this.amazonS3.createBucket(PackWriterTest.BUCKET);
+        this.profile = new S3Profile(S3Profile.DEFAULT_NAME, this.amazonS3, PackWriterTest.BUCKET, "/");
+        PlayS3.transferScheduler = new TransferScheduler();
+    }
+
+    /**
+     * Stop the client and the stand-in.
+     *
+     * @since 26.10.19
+     */
+    @After
+    public void tearDown() {
+        PlayS3.transferScheduler = null;
+        this.amazonS3.shutdown();
+        this.server.close();
+    }
+
+    /**
+     * Get the content of a stored object.
+     *
+     * @param key The object key
+     * @return The object content
+     * @throws IOException If the content can't be read
+     * @since 26.10.19
+     */
+    private String read(final String key) throws IOException {
+        return IOUtils.toString(this.amazonS3.getObject(PackWriterTest.BUCKET, key).getObjectContent());
+    }
+
+    @Test
+    public void groupCommit() throws IOException {
+        final PackWriter packWriter = new PackWriter(16, 1024, 300, "packs/");
+        try {
+            final List<CompletableFuture<PackWriter.PackEntry>> futures = new ArrayList<>();
+            for (final String data : new String[]{"first", "second", "", "third"}) {
+                futures.add(packWriter.append(this.profile, "model", data.getBytes(StandardCharsets.UTF_8)));
+            }
+            Assert.assertFalse(futures.get(0).isDone());
+
+            final List<PackWriter.PackEntry> entries = new ArrayList<>();
+            futures.forEach(future -> entries.add(future.join()));
+            // The bucket creation and a single pack upload
+            Assert.assertEquals(2, this.server.getRequestCount(LocalS3Server.Operation.PUT));
+            final String packKey = entries.get(0).getPackKey();
+            Assert.assertTrue(packKey.startsWith("packs/model/"));
+            Assert.assertEquals("firstsecondthird", this.read(packKey));
+            final long[][] expected = {{0, 5}, {5, 6}, {11, 0}, {11, 5}};
+            for (int idx = 0; idx < entries.size(); ++idx) {
+                Assert.assertEquals(packKey, entries.get(idx).getPackKey());
+                Assert.assertEquals(expected[idx][0], entries.get(idx).getOffset());
+                Assert.assertEquals(expected[idx][1], entries.get(idx).getLength());
+            }
+            Assert.assertEquals(
+                S3Profile.DEFAULT_NAME,
+                this.amazonS3.getObjectMetadata(PackWriterTest.BUCKET, packKey).getUserMetaDataOf(PackWriter.PROFILE_METADATA)
+            );
+        } finally {
+            packWriter.close();
+        }
+    }
+
+    @Test
+    public void namespaces() {
+        final PackWriter packWriter = new PackWriter(16, 1024, 100, "");
+        try {
+            final CompletableFuture<PackWriter.PackEntry> first = packWriter.append(this.profile, "model-a", new byte[4]);
+            final CompletableFuture<PackWriter.PackEntry> second = packWriter.append(this.profile, "model-b", new byte[4]);
+            Assert.assertTrue(first.join().getPackKey().startsWith("model-a/"));
+            Assert.assertTrue(second.join().getPackKey().startsWith("model-b/"));
+            Assert.assertEquals(0, second.join().getOffset());
+        } finally {
+            packWriter.close();
+        }
+    }
+
+    @Test
+    public void rollover() throws IOException {
+        final PackWriter packWriter = new PackWriter(60, 100, 60000, "packs");
+        try {
+            final CompletableFuture<PackWriter.PackEntry> first = packWriter.append(this.profile, "model", new byte[60]);
+            Assert.assertFalse(first.isDone());
+
+            // Doesn't fit in the open pack, which is uploaded without waiting the linger time
+            final CompletableFuture<PackWriter.PackEntry> second = packWriter.append(this.profile, "model", new byte[60]);
+            Assert.assertEquals(0, first.join().getOffset());
+            Assert.assertFalse(second.isDone());
+
+            // Fills the pack up to its maximum size
+            final CompletableFuture<PackWriter.PackEntry> third = packWriter.append(this.profile, "model", new byte[40]);
+            Assert.assertEquals(second.join().getPackKey(), third.join().getPackKey());
+            Assert.assertNotEquals(first.join().getPackKey(), second.join().getPackKey());
+            Assert.assertEquals(60, third.join().getOffset());
+            Assert.assertEquals(60, this.read(first.join().getPackKey()).length());
+            Assert.assertEquals(100, this.read(second.join().getPackKey()).length());
+        } finally {
+            packWriter.close();
+        }
+    }
+
+    @Test
+    public void closeUploadsOpenPacks() {
+        final PackWriter packWriter = new PackWriter(16, 1024, 60000, "packs");
+        final CompletableFuture<PackWriter.PackEntry> future = packWriter.append(this.profile, "model", new byte[8]);
+        packWriter.close();
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(8, future.join().getLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLarge() {
+        final PackWriter packWriter = new PackWriter(16, 1024, 100, "packs");
+        try {
+            packWriter.append(this.profile, "model", new byte[17]);
+        } finally {
+            packWriter.close();
+        }
+    }
+
+    @Test
+    public void failurePropagated() {
+        this.server.setFaultProfile(LocalS3Server.Operation.PUT, new FaultProfile(0, 0, 1, 0));
+        final PackWriter packWriter = new PackWriter(16, 1024, 100, "packs");
+        try {
+            final List<CompletableFuture<PackWriter.PackEntry>> futures = new ArrayList<>();
+            for (int idx = 0; idx < 3; ++idx) {
+                futures.add(packWriter.append(this.profile, "model", new byte[8]));
+            }
+            for (final CompletableFuture<PackWriter.PackEntry> future : futures) {
+                try {
+                    future.join();
+                    Assert.fail();
+                } catch (final CompletionException ex) {
+                    Assert.assertTrue(ex.getCause() instanceof AmazonS3Exception);
+                    Assert.assertEquals("SlowDown", ((AmazonS3Exception) ex.getCause()).getErrorCode());
+                }
+            }
+            Assert.assertEquals(1, this.server.getFaultCount(LocalS3Server.Operation.PUT));
+            Assert.assertEquals(0, this.server.getObjectCount(PackWriterTest.BUCKET));
+        } finally {
+            packWriter.close();
+        }
+    }
+}
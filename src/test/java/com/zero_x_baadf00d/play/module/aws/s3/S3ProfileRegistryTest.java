@@ -0,0 +1,138 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * S3ProfileRegistryTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @since 26.10.19
+ */
+public class S3ProfileRegistryTest {
+
+    /**
+     * Build a profile without client.
+     *
+     * @param name The name of the profile
+     * @return The profile
+     * @since 26.10.19
+     */
+    private static S3Profile profile(final String name) {
+        return new S3Profile(name, null, name + "-bucket", "https://s3.local");
+    }
+
+    @Test
+    public void ruleWithoutCondition() {
+        final S3ProfileRegistry.RoutingRule rule = new S3ProfileRegistry.RoutingRule("hot", null, -1, -1);
+        Assert.assertTrue(rule.matches("", 0));
+        Assert.assertTrue(rule.matches("images", -1));
+        Assert.assertEquals("hot", rule.getProfileName());
+    }
+
+    @Test
+    public void ruleSubDirectory() {
+        final S3ProfileRegistry.RoutingRule rule = new S3ProfileRegistry.RoutingRule("archive", "backups", -1, -1);
+        Assert.assertTrue(rule.matches("backups", 10));
+        Assert.assertFalse(rule.matches("backups/old", 10));
+        Assert.assertFalse(rule.matches("", 10));
+    }
+
+    @Test
+    public void ruleSizeBounds() {
+        final S3ProfileRegistry.RoutingRule rule = new S3ProfileRegistry.RoutingRule("hot", null, 10, 100);
+        Assert.assertFalse(rule.matches("", 9));
+        Assert.assertTrue(rule.matches("", 10));
+        Assert.assertTrue(rule.matches("", 100));
+        Assert.assertFalse(rule.matches("", 101));
+    }
+
+    @Test
+    public void ruleUnknownSize() {
+        Assert.assertFalse(new S3ProfileRegistry.RoutingRule("hot", null, -1, 1024 * 1024).matches("", -1));
+        Assert.assertFalse(new S3ProfileRegistry.RoutingRule("archive", null, 100, -1).matches("", -1));
+        Assert.assertTrue(new S3ProfileRegistry.RoutingRule("any", "backups", -1, -1).matches("backups", -1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicatedProfile() {
+        new S3ProfileRegistry(
+            Arrays.asList(profile(S3Profile.DEFAULT_NAME), profile("archive"), profile("archive")),
+            Collections.emptyList()
+        );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingDefaultProfile() {
+        new S3ProfileRegistry(Collections.singletonList(profile("archive")), Collections.emptyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ruleWithUnknownProfile() {
+        new S3ProfileRegistry(
+            Collections.singletonList(profile(S3Profile.DEFAULT_NAME)),
+            Collections.singletonList(new S3ProfileRegistry.RoutingRule("archive", null, -1, -1))
+        );
+    }
+
+    @Test
+    public void get() {
+        final S3ProfileRegistry registry = new S3ProfileRegistry(
+            Arrays.asList(profile(S3Profile.DEFAULT_NAME), profile("archive")),
+            Collections.emptyList()
+        );
+        Assert.assertEquals(S3Profile.DEFAULT_NAME, registry.get(null).getName());
+        Assert.assertEquals(S3Profile.DEFAULT_NAME, registry.getDefault().getName());
+        Assert.assertEquals("archive", registry.get("archive").getName());
+        Assert.assertEquals(2, registry.getProfiles().size());
+        try {
+            registry.get("unknown");
+            Assert.fail();
+        } catch (final IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void routeFirstMatchingRule() {
+        final S3ProfileRegistry registry = new S3ProfileRegistry(
+            Arrays.asList(profile(S3Profile.DEFAULT_NAME), profile("archive"), profile("hot")),
+            Arrays.asList(
+                new S3ProfileRegistry.RoutingRule("archive", "backups", -1, -1),
+                new S3ProfileRegistry.RoutingRule("hot", null, -1, 1024),
+                new S3ProfileRegistry.RoutingRule("archive", null, 1024, -1)
+            )
+        );
+        Assert.assertEquals("archive", registry.route("backups", 10).getName());
+        Assert.assertEquals("hot", registry.route("", 10).getName());
+        Assert.assertEquals("archive", registry.route("", 4096).getName());
+        Assert.assertEquals(S3Profile.DEFAULT_NAME, registry.route("", -1).getName());
+        Assert.assertEquals("archive", registry.route("backups", -1).getName());
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TransferSchedulerTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @since 26.10.19
+ */
+public class TransferSchedulerTest {
+
+    /**
+     * One mebibyte.
+     *
+     * @since 26.10.19
+     */
+    private static final int MIB = 1024 * 1024;
+
+    /**
+     * Read a whole stream and close it.
+     *
+     * @param inputStream The stream to read
+     * @return The number of bytes read
+     * @throws IOException If the stream can't be read
+     * @since 26.10.19
+     */
+    private static long drain(final InputStream inputStream) throws IOException {
+        final byte[] buffer = new byte[65536];
+        long length = 0;
+        try (InputStream in = inputStream) {
+            int count = in.read(buffer);
+            while (count >= 0) {
+                length += count;
+                count = in.read(buffer);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Get the elapsed time since the given instant.
+     *
+     * @param start The start, from {@code System.nanoTime()}
+     * @return The elapsed time in milliseconds
+     * @since 26.10.19
+     */
+    private static long elapsedMillis(final long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Transfer running until interrupted.
+     *
+     * @param scheduler The scheduler to use
+     * @param operation The kind of transfer
+     * @param length    The size of the transfer
+     * @param listener  The progress listener, can be {@code null}
+     * @return The started thread
+     * @since 26.10.19
+     */
+    private static Thread startTransfer(final TransferScheduler scheduler, final TransferScheduler.Operation operation,
+                                        final int length, final TransferProgressListener listener) {
+        final Thread thread = new Thread(() -> {
+            try {
+                TransferSchedulerTest.drain(scheduler.schedule(
+                    operation,
+                    new ByteArrayInputStream(new byte[length]),
+                    length,
+                    listener
+                ));
+            } catch (final IOException ignore) {
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * A 2 MiB upload at 1 MiB/s takes about one second after the initial burst.
+     *
+     * @throws IOException If something goes wrong
+     * @since 26.10.19
+     */
+    @Test
+    public void globalRateLimit() throws IOException {
+        final TransferScheduler scheduler = new TransferScheduler(MIB, 0, 0, 1, 1, TransferScheduler.DEFAULT_CHUNK_SIZE);
+        final long start = System.nanoTime();
+        final long length = TransferSchedulerTest.drain(scheduler.schedule(
+            TransferScheduler.Operation.UPLOAD,
+            new ByteArrayInputStream(new byte[2 * MIB]),
+            2 * MIB,
+            null
+        ));
+        final long elapsed = TransferSchedulerTest.elapsedMillis(start);
+
+        Assert.assertEquals(2 * MIB, length);
+        Assert.assertTrue("Too fast: " + elapsed + " ms", elapsed >= 800);
+        Assert.assertTrue("Too slow: " + elapsed + " ms", elapsed <= 2500);
+    }
+
+    /**
+     * The limit of an operation does not slow down the other operation.
+     *
+     * @throws IOException If something goes wrong
+     * @since 26.10.19
+     */
+    @Test
+    public void operationRateLimit() throws IOException {
+        final TransferScheduler scheduler = new TransferScheduler(0, MIB / 2, 0, 1, 1, TransferScheduler.DEFAULT_CHUNK_SIZE);
+
+        long start = System.nanoTime();
+        TransferSchedulerTest.drain(scheduler.schedule(TransferScheduler.Operation.DOWNLOAD, new ByteArrayInputStream(new byte[MIB]), MIB, null));
+        final long downloadElapsed = TransferSchedulerTest.elapsedMillis(start);
+
+        start = System.nanoTime();
+        TransferSchedulerTest.drain(scheduler.schedule(TransferScheduler.Operation.UPLOAD, new ByteArrayInputStream(new byte[MIB]), MIB, null));
+        final long uploadElapsed = TransferSchedulerTest.elapsedMillis(start);
+
+        Assert.assertTrue("Download throttled: " + downloadElapsed + " ms", downloadElapsed <= 300);
+        Assert.assertTrue("Upload not throttled: " + uploadElapsed + " ms", uploadElapsed >= 800);
+    }
+
+    /**
+     * A small read of a new transfer is granted before the chunks already
+     * queued by large uploads sharing the same limit. In FIFO order, it
+     * would wait for a chunk of each upload.
+     *
+     * @throws Exception If something goes wrong
+     * @since 26.10.19
+     */
+    @Test
+    public void fairOrdering() throws Exception {
+        final TransferScheduler scheduler = new TransferScheduler(MIB, 0, 0, 1, 1, TransferScheduler.DEFAULT_CHUNK_SIZE);
+        final List<TransferScheduler.Operation> grants = Collections.synchronizedList(new ArrayList<>());
+        final TransferProgressListener listener = (operation, transferredBytes, totalBytes) -> grants.add(operation);
+        final List<Thread> uploads = new ArrayList<>();
+        for (int idx = 0; idx < 8; ++idx) {
+            uploads.add(TransferSchedulerTest.startTransfer(scheduler, TransferScheduler.Operation.UPLOAD, 4 * MIB, listener));
+        }
+        try {
+            // Wait for the initial burst to be consumed, each upload has then a chunk queued
+            Thread.sleep(1500);
+            Assert.assertEquals(8, scheduler.getActiveTransfers(TransferScheduler.Operation.UPLOAD));
+
+            final int grantedBefore = grants.size();
+            try (InputStream download = scheduler.schedule(
+                TransferScheduler.Operation.DOWNLOAD,
+                new ByteArrayInputStream(new byte[1024]),
+                1024,
+                listener
+            )) {
+                Assert.assertEquals(1024, download.read(new byte[1024]));
+            }
+
+            // An upload granted just before the download may be recorded after it
+            final int downloadGrant = grants.indexOf(TransferScheduler.Operation.DOWNLOAD);
+            Assert.assertTrue("Download granted after " + (downloadGrant - grantedBefore) + " upload chunks", downloadGrant - grantedBefore <= 1);
+        } finally {
+            for (final Thread upload : uploads) {
+                upload.interrupt();
+                upload.join(5000);
+            }
+        }
+        Assert.assertEquals(0, scheduler.getActiveTransfers(TransferScheduler.Operation.UPLOAD));
+        Assert.assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    /**
+     * Operations sharing the same limit get bandwidth in proportion of
+     * their weight.
+     *
+     * @throws Exception If something goes wrong
+     * @since 26.10.19
+     */
+    @Test
+    public void weightedSharing() throws Exception {
+        final TransferScheduler scheduler = new TransferScheduler(MIB, 0, 0, 1, 4, TransferScheduler.DEFAULT_CHUNK_SIZE);
+        final List<Thread> transfers = new ArrayList<>();
+        for (int idx = 0; idx < 2; ++idx) {
+            transfers.add(TransferSchedulerTest.startTransfer(scheduler, TransferScheduler.Operation.UPLOAD, 8 * MIB, null));
+            transfers.add(TransferSchedulerTest.startTransfer(scheduler, TransferScheduler.Operation.DOWNLOAD, 8 * MIB, null));
+        }
+        try {
+            // Wait for the initial burst to be consumed, then measure the shares
+            Thread.sleep(1200);
+            final long uploadBefore = scheduler.getTransferredBytes(TransferScheduler.Operation.UPLOAD);
+            final long downloadBefore = scheduler.getTransferredBytes(TransferScheduler.Operation.DOWNLOAD);
+            Thread.sleep(1000);
+            final long uploaded = scheduler.getTransferredBytes(TransferScheduler.Operation.UPLOAD) - uploadBefore;
+            final long downloaded = scheduler.getTransferredBytes(TransferScheduler.Operation.DOWNLOAD) - downloadBefore;
+
+            final double ratio = (double) downloaded / uploaded;
+            Assert.assertTrue("Weights not honoured: " + downloaded + " bytes downloaded, " + uploaded + " uploaded", ratio >= 2.5 && ratio <= 6);
+        } finally {
+            for (final Thread transfer : transfers) {
+                transfer.interrupt();
+                transfer.join(5000);
+            }
+        }
+        Assert.assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    /**
+     * Bandwidth acquired but not used because the end of the stream has
+     * been reached is given back.
+     *
+     * @throws IOException If something goes wrong
+     * @since 26.10.19
+     */
+    @Test
+    public void releaseOnEof() throws IOException {
+        final TransferScheduler scheduler = new TransferScheduler(65536, 0, 0, 1, 1, TransferScheduler.DEFAULT_CHUNK_SIZE);
+        Assert.assertEquals(10, TransferSchedulerTest.drain(scheduler.schedule(
+            TransferScheduler.Operation.UPLOAD,
+            new ByteArrayInputStream(new byte[10]),
+            10,
+            null
+        )));
+
+        // Without the release, 32 KiB would have been consumed and this read would wait ~440 ms
+        final long start = System.nanoTime();
+        TransferSchedulerTest.drain(scheduler.schedule(
+            TransferScheduler.Operation.UPLOAD,
+            new ByteArrayInputStream(new byte[61440]),
+            61440,
+            null
+        ));
+        final long elapsed = TransferSchedulerTest.elapsedMillis(start);
+
+        Assert.assertTrue("Bandwidth not released: " + elapsed + " ms", elapsed <= 250);
+    }
+
+    /**
+     * A transfer waiting for bandwidth can be interrupted.
+     *
+     * @throws Exception If something goes wrong
+     * @since 26.10.19
+     */
+    @Test
+    public void interruptWhileWaiting() throws Exception {
+        final TransferScheduler scheduler = new TransferScheduler(16384, 0, 0, 1, 1, TransferScheduler.DEFAULT_CHUNK_SIZE);
+        final AtomicBoolean interruptedIOException = new AtomicBoolean();
+        final AtomicBoolean interruptFlag = new AtomicBoolean();
+        final Thread upload = new Thread(() -> {
+            try {
+                TransferSchedulerTest.drain(scheduler.schedule(
+                    TransferScheduler.Operation.UPLOAD,
+                    new ByteArrayInputStream(new byte[MIB]),
+                    MIB,
+                    null
+                ));
+            } catch (final InterruptedIOException ex) {
+                interruptedIOException.set(true);
+                interruptFlag.set(Thread.currentThread().isInterrupted());
+            } catch (final IOException ignore) {
+            }
+        });
+        upload.start();
+        Thread.sleep(300);
+        Assert.assertEquals(1, scheduler.getQueueDepth());
+        Assert.assertEquals(1, scheduler.getQueueDepth(TransferScheduler.Operation.UPLOAD));
+        Assert.assertEquals(0, scheduler.getQueueDepth(TransferScheduler.Operation.DOWNLOAD));
+
+        upload.interrupt();
+        upload.join(5000);
+
+        Assert.assertFalse(upload.isAlive());
+        Assert.assertTrue(interruptedIOException.get());
+        Assert.assertTrue(interruptFlag.get());
+        Assert.assertEquals(0, scheduler.getQueueDepth());
+        Assert.assertEquals(0, scheduler.getActiveTransfers(TransferScheduler.Operation.UPLOAD));
+    }
+
+    /**
+     * Transferred bytes, active transfers and progress are accounted once,
+     * even when the stream is reset.
+     *
+     * @throws IOException If something goes wrong
+     * @since 26.10.19
+     */
+    @Test
+    public void metrics() throws IOException {
+        final TransferScheduler scheduler = new TransferScheduler();
+        final List<Long> progress = new ArrayList<>();
+        final InputStream inputStream = scheduler.schedule(
+            TransferScheduler.Operation.UPLOAD,
+            new ByteArrayInputStream(new byte[100000]),
+            100000,
+            (operation, transferredBytes, totalBytes) -> {
+                Assert.assertEquals(TransferScheduler.Operation.UPLOAD, operation);
+                Assert.assertEquals(100000, totalBytes);
+                progress.add(transferredBytes);
+            }
+        );
+        Assert.assertEquals(1, scheduler.getActiveTransfers(TransferScheduler.Operation.UPLOAD));
+
+        // Read a part of the stream, then rewind as the SDK does on retry
+        Assert.assertTrue(inputStream.markSupported());
+        inputStream.mark(100000);
+        for (int idx = 0; idx < 3; ++idx) {
+            Assert.assertEquals(TransferScheduler.DEFAULT_CHUNK_SIZE, inputStream.read(new byte[TransferScheduler.DEFAULT_CHUNK_SIZE]));
+        }
+        inputStream.reset();
+        Assert.assertEquals(100000, TransferSchedulerTest.drain(inputStream));
+        inputStream.close();
+
+        Assert.assertEquals(0, scheduler.getActiveTransfers(TransferScheduler.Operation.UPLOAD));
+        Assert.assertEquals(100000, scheduler.getTransferredBytes(TransferScheduler.Operation.UPLOAD));
+        Assert.assertEquals(0, scheduler.getTransferredBytes(TransferScheduler.Operation.DOWNLOAD));
+        Assert.assertEquals(Long.valueOf(100000), progress.get(progress.size() - 1));
+        for (int idx = 1; idx < progress.size(); ++idx) {
+            Assert.assertTrue("Progress went backwards", progress.get(idx) > progress.get(idx - 1));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3.ebean;
+
+import com.amazonaws.util.IOUtils;
+import com.zero_x_baadf00d.play.module.aws.s3.LocalS3Application;
+import com.zero_x_baadf00d.play.module.aws.s3.PlayS3;
+import com.zero_x_baadf00d.play.module.aws.s3.loadtest.LocalS3Server;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BaseS3FileModelTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @since 26.10.19
+ */
+public class BaseS3FileModelTest {
+
+    /**
+     * Build a file pointing to a range of a pack, without saving it.
+     *
+     * @param name    The file name
+     * @param packKey The key of the pack
+     * @param offset  The offset of the file in the pack
+     * @param length  The length of the file
+     * @return The file
+     * @since 26.10.19
+     */
+    private static S3FileModel packed(final String name, final String packKey, final long offset, final long length) {
+        final S3FileModel file = new S3FileModel();
+        file.setName(name);
+        file.bucket = LocalS3Application.BUCKET;
+        file.packKey = packKey;
+        file.packOffset = offset;
+        file.packLength = length;
+        return file;
+    }
+
+    /**
+     * Build a private file to save.
+     *
+     * @param inputStream The file content
+     * @return The file
+     * @since 26.10.19
+     */
+    private static S3FileModel privateFile(final InputStream inputStream) {
+        final S3FileModel file = new S3FileModel();
+        file.setName("file.bin");
+        file.setContentType("application/x-binary");
+        file.setPrivate(true);
+        file.setObject(inputStream);
+        return file;
+    }
+
+    /**
+     * Build content where each byte depends on its position.
+     *
+     * @param length The content length
+     * @return The content
+     * @since 26.10.19
+     */
+    private static byte[] content(final int length) {
+        final byte[] data = new byte[length];
+        for (int idx = 0; idx < length; ++idx) {
+            data[idx] = (byte) (idx * 31 + 7);
+        }
+        return data;
+    }
+
+    @Test
+    public void readFileContents() throws Exception {
+        try (LocalS3Application application = new LocalS3Application(Collections.emptyMap())) {
+            PlayS3.getAmazonS3().putObject(LocalS3Application.BUCKET, "packs/first", "0123456789abcdefghij");
+            PlayS3.getAmazonS3().putObject(LocalS3Application.BUCKET, "packs/second", "klmnopqrst");
+            PlayS3.getAmazonS3().putObject(LocalS3Application.BUCKET, "packs/third", "uvwxyz");
+            final long getCount = application.getServer().getRequestCount(LocalS3Server.Operation.GET);
+
+            // Entries out of order, with gaps, empty and at both ends of the pack
+            final Map<String, String> contents = new HashMap<>();
+            BaseS3FileModel.readFileContents(Arrays.asList(
+                packed("b", "packs/first", 10, 4),
+                packed("a", "packs/first", 2, 3),
+                packed("single", "packs/second", 9, 1),
+                packed("empty", "packs/first", 15, 0),
+                packed("last", "packs/first", 19, 1),
+                packed("empty-only", "packs/third", 3, 0)
+            ), (file, content) -> {
+                try {
+                    contents.put(file.getName(), IOUtils.toString(content));
+                } catch (final IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            Assert.assertEquals("234", contents.get("a"));
+            Assert.assertEquals("abcd", contents.get("b"));
+            Assert.assertEquals("", contents.get("empty"));
+            Assert.assertEquals("j", contents.get("last"));
+            Assert.assertEquals("t", contents.get("single"));
+            Assert.assertEquals("", contents.get("empty-only"));
+
+            // One ranged request per pack, none for empty entries
+            Assert.assertEquals(getCount + 2, application.getServer().getRequestCount(LocalS3Server.Operation.GET));
+            Assert.assertEquals("cdef", IOUtils.toString(packed("c", "packs/first", 12, 4).getFileContent()));
+            Assert.assertEquals("", IOUtils.toString(packed("d", "packs/first", 0, 0).getFileContent()));
+        }
+    }
+
+    @Test
+    public void packSmallPrivateFile() throws Exception {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("aws.s3.packing.enabled", true);
+        settings.put("aws.s3.packing.linger", "10ms");
+        try (LocalS3Application application = new LocalS3Application(settings)) {
+            final byte[] data = BaseS3FileModelTest.content(1000);
+            final S3FileModel file = BaseS3FileModelTest.privateFile(new ByteArrayInputStream(data));
+            file.save();
+            Assert.assertNotNull(file.getPackKey());
+            Assert.assertEquals(0, (long) file.getPackOffset());
+            Assert.assertEquals(1000, (long) file.getPackLength());
+            Assert.assertArrayEquals(data, IOUtils.toByteArray(S3FileModel.find.byId(file.getId()).getFileContent()));
+        }
+    }
+
+    @Test
+    public void underreportedSize() throws Exception {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("aws.s3.packing.enabled", true);
+        settings.put("aws.s3.packing.linger", "10ms");
+        try (LocalS3Application application = new LocalS3Application(settings)) {
+            // Claims to fit in a pack, but is larger than the packing threshold
+            final byte[] data = BaseS3FileModelTest.content(10000);
+            final S3FileModel file = BaseS3FileModelTest.privateFile(new ByteArrayInputStream(data) {
+                @Override
+                public synchronized int available() {
+                    return Math.min(10, super.available());
+                }
+            });
+            file.save();
+            Assert.assertNull(file.getPackKey());
+            Assert.assertArrayEquals(data, IOUtils.toByteArray(file.getFileContent()));
+        }
+    }
+
+    @Test
+    public void unknownSize() throws Exception {
+        try (LocalS3Application application = new LocalS3Application(Collections.emptyMap())) {
+            final byte[] data = "content of unknown size".getBytes(StandardCharsets.UTF_8);
+            final S3FileModel file = BaseS3FileModelTest.privateFile(new ByteArrayInputStream(data) {
+                @Override
+                public synchronized int available() {
+                    return 0;
+                }
+            });
+            file.save();
+            Assert.assertArrayEquals(data, IOUtils.toByteArray(file.getFileContent()));
+        }
+    }
+}
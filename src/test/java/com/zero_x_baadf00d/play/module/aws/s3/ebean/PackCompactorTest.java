@@ -0,0 +1,258 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3.ebean;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.util.IOUtils;
+import com.zero_x_baadf00d.play.module.aws.s3.LocalS3Application;
+import com.zero_x_baadf00d.play.module.aws.s3.PackWriter;
+import com.zero_x_baadf00d.play.module.aws.s3.PlayS3;
+import com.zero_x_baadf00d.play.module.aws.s3.loadtest.FaultProfile;
+import com.zero_x_baadf00d.play.module.aws.s3.loadtest.LocalS3Server;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * PackCompactorTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @since 26.10.19
+ */
+public class PackCompactorTest {
+
+    /**
+     * Size of each saved file.
+     *
+     * @since 26.10.19
+     */
+    private static final int FILE_SIZE = 100;
+
+    /**
+     * Boot the module with packing enabled.
+     *
+     * @return The application
+     * @throws Exception If the application can't be started
+     * @since 26.10.19
+     */
+    private static LocalS3Application start() throws Exception {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("aws.s3.packing.enabled", true);
+        settings.put("aws.s3.packing.linger", "500ms");
+        return new LocalS3Application(settings);
+    }
+
+    /**
+     * Save files at once, so they share the same pack.
+     *
+     * @param count The number of files
+     * @return The saved files, sorted by offset in the pack
+     * @throws Exception If a file can't be saved
+     * @since 26.10.19
+     */
+    private static List<S3FileModel> savePack(final int count) throws Exception {
+        final List<Callable<S3FileModel>> tasks = new ArrayList<>();
+        for (int idx = 0; idx < count; ++idx) {
+            final byte[] data = new byte[PackCompactorTest.FILE_SIZE];
+            data[0] = (byte) idx;
+            tasks.add(() -> {
+                final S3FileModel file = new S3FileModel();
+                file.setName("file.bin");
+                file.setContentType("application/x-binary");
+                file.setPrivate(true);
+                file.setObject(new ByteArrayInputStream(data));
+                file.save();
+                return file;
+            });
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(count);
+        final List<S3FileModel> files = new ArrayList<>();
+        try {
+            for (final Future<S3FileModel> future : executor.invokeAll(tasks)) {
+                files.add(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (final S3FileModel file : files) {
+            Assert.assertEquals(files.get(0).getPackKey(), file.getPackKey());
+        }
+        files.sort(Comparator.comparing(S3FileModel::getPackOffset));
+        return files;
+    }
+
+    /**
+     * Read the first byte of a file.
+     *
+     * @param file The file
+     * @return The first byte of the file
+     * @throws Exception If the file can't be read
+     * @since 26.10.19
+     */
+    private static int firstByte(final S3FileModel file) throws Exception {
+        final byte[] data = IOUtils.toByteArray(file.getFileContent());
+        Assert.assertEquals(PackCompactorTest.FILE_SIZE, data.length);
+        return data[0];
+    }
+
+    @Test
+    public void rewriteThenDeleteLater() throws Exception {
+        try (LocalS3Application application = PackCompactorTest.start()) {
+            final List<S3FileModel> files = PackCompactorTest.savePack(10);
+            final String oldPackKey = files.get(0).getPackKey();
+            for (int idx = 2; idx < files.size(); ++idx) {
+                files.get(idx).delete();
+            }
+            final S3FileModel loadedBefore = S3FileModel.find.byId(files.get(1).getId());
+            final int firstData = PackCompactorTest.firstByte(files.get(0));
+            final int secondData = PackCompactorTest.firstByte(files.get(1));
+
+            final PackCompactor<S3FileModel> compactor = new PackCompactor<>(S3FileModel.class, 0.5, 0);
+            Assert.assertEquals(0, compactor.compact());
+
+            // Rows point to a new pack, the old one is only marked as obsolete
+            final S3FileModel first = S3FileModel.find.byId(files.get(0).getId());
+            final S3FileModel second = S3FileModel.find.byId(files.get(1).getId());
+            Assert.assertNotEquals(oldPackKey, first.getPackKey());
+            Assert.assertEquals(first.getPackKey(), second.getPackKey());
+            Assert.assertEquals(0, (long) first.getPackOffset());
+            Assert.assertEquals(PackCompactorTest.FILE_SIZE, (long) second.getPackOffset());
+            Assert.assertEquals(firstData, PackCompactorTest.firstByte(first));
+            Assert.assertEquals(secondData, PackCompactorTest.firstByte(second));
+            final ObjectMetadata oldPackMetaData = PlayS3.getAmazonS3().getObjectMetadata(LocalS3Application.BUCKET, oldPackKey);
+            Assert.assertEquals(first.getPackKey(), oldPackMetaData.getUserMetaDataOf(PackCompactor.OBSOLETE_METADATA));
+            Assert.assertEquals("default", oldPackMetaData.getUserMetaDataOf(PackWriter.PROFILE_METADATA));
+
+            // A row loaded before the rewrite is still readable
+            Assert.assertEquals(oldPackKey, loadedBefore.getPackKey());
+            Assert.assertEquals(secondData, PackCompactorTest.firstByte(loadedBefore));
+
+            // A later run deletes the old pack and keeps the new one
+            Assert.assertEquals(10L * PackCompactorTest.FILE_SIZE, compactor.compact());
+            Assert.assertFalse(PlayS3.getAmazonS3().doesObjectExist(LocalS3Application.BUCKET, oldPackKey));
+            Assert.assertEquals(1, application.getServer().getObjectCount(LocalS3Application.BUCKET));
+            Assert.assertEquals(secondData, PackCompactorTest.firstByte(S3FileModel.find.byId(files.get(1).getId())));
+        }
+    }
+
+    @Test
+    public void gracePeriod() throws Exception {
+        try (LocalS3Application application = PackCompactorTest.start()) {
+            final List<S3FileModel> files = PackCompactorTest.savePack(4);
+            for (final S3FileModel file : files) {
+                file.delete();
+            }
+            Assert.assertEquals(0, new PackCompactor<>(S3FileModel.class, 0.5, 60000).compact());
+            Assert.assertEquals(1, application.getServer().getObjectCount(LocalS3Application.BUCKET));
+            Assert.assertEquals(4L * PackCompactorTest.FILE_SIZE, new PackCompactor<>(S3FileModel.class, 0.5, 0).compact());
+            Assert.assertEquals(0, application.getServer().getObjectCount(LocalS3Application.BUCKET));
+        }
+    }
+
+    @Test
+    public void packOfAnotherProfile() throws Exception {
+        try (LocalS3Application application = PackCompactorTest.start()) {
+            final String prefix = PlayS3.getPackWriter().getPackPrefix(S3FileModel.class.getName());
+            final ObjectMetadata objMetaData = new ObjectMetadata();
+            objMetaData.setContentLength(10);
+            objMetaData.addUserMetadata(PackWriter.PROFILE_METADATA, "replica");
+            PlayS3.getAmazonS3().putObject(LocalS3Application.BUCKET, prefix + "replicated", new ByteArrayInputStream(new byte[10]), objMetaData);
+            Assert.assertEquals(0, new PackCompactor<>(S3FileModel.class, 0.5, 0).compact());
+            Assert.assertTrue(PlayS3.getAmazonS3().doesObjectExist(LocalS3Application.BUCKET, prefix + "replicated"));
+        }
+    }
+
+    @Test
+    public void markFailure() throws Exception {
+        try (LocalS3Application application = PackCompactorTest.start()) {
+            final List<S3FileModel> files = PackCompactorTest.savePack(4);
+            final String oldPackKey = files.get(0).getPackKey();
+            final int firstData = PackCompactorTest.firstByte(files.get(0));
+            for (int idx = 1; idx < 4; ++idx) {
+                files.get(idx).delete();
+            }
+
+            // The new pack is written, but the old one can't be marked
+            application.getServer().setFaultProfile(LocalS3Server.Operation.COPY, new FaultProfile(0, 0, 0, 1));
+            final PackCompactor<S3FileModel> compactor = new PackCompactor<>(S3FileModel.class, 0.5, 0);
+            Assert.assertEquals(0, compactor.compact());
+            Assert.assertEquals(oldPackKey, S3FileModel.find.byId(files.get(0).getId()).getPackKey());
+            Assert.assertEquals(2, application.getServer().getObjectCount(LocalS3Application.BUCKET));
+            application.getServer().setFaultProfile(LocalS3Server.Operation.COPY, null);
+
+            // The next run deletes the unused new pack, and rewrites the old one again
+            Assert.assertEquals(PackCompactorTest.FILE_SIZE, compactor.compact());
+            final S3FileModel reloaded = S3FileModel.find.byId(files.get(0).getId());
+            Assert.assertNotEquals(oldPackKey, reloaded.getPackKey());
+            Assert.assertEquals(firstData, PackCompactorTest.firstByte(reloaded));
+            Assert.assertEquals(
+                reloaded.getPackKey(),
+                PlayS3.getAmazonS3().getObjectMetadata(LocalS3Application.BUCKET, oldPackKey).getUserMetaDataOf(PackCompactor.OBSOLETE_METADATA)
+            );
+        }
+    }
+
+    @Test
+    public void failureLeavesPacksUntouched() throws Exception {
+        try (LocalS3Application application = PackCompactorTest.start()) {
+            final List<S3FileModel> firstPack = PackCompactorTest.savePack(4);
+            final List<S3FileModel> secondPack = PackCompactorTest.savePack(4);
+            final S3FileModel[] liveFiles = {firstPack.get(0), secondPack.get(0)};
+            final int[] liveData = {PackCompactorTest.firstByte(liveFiles[0]), PackCompactorTest.firstByte(liveFiles[1])};
+            for (int idx = 1; idx < 4; ++idx) {
+                firstPack.get(idx).delete();
+                secondPack.get(idx).delete();
+            }
+
+            // Every upload fails, even after the retries of the client
+            application.getServer().setFaultProfile(LocalS3Server.Operation.PUT, new FaultProfile(0, 0, 0, 1));
+            final long getCount = application.getServer().getRequestCount(LocalS3Server.Operation.GET);
+            Assert.assertEquals(0, new PackCompactor<>(S3FileModel.class, 0.5, 0).compact());
+            Assert.assertEquals(getCount + 2, application.getServer().getRequestCount(LocalS3Server.Operation.GET));
+            application.getServer().setFaultProfile(LocalS3Server.Operation.PUT, null);
+
+            for (int idx = 0; idx < liveFiles.length; ++idx) {
+                final S3FileModel file = liveFiles[idx];
+                final S3FileModel reloaded = S3FileModel.find.byId(file.getId());
+                Assert.assertEquals(file.getPackKey(), reloaded.getPackKey());
+                Assert.assertNull(
+                    PlayS3.getAmazonS3().getObjectMetadata(LocalS3Application.BUCKET, file.getPackKey())
+                        .getUserMetaDataOf(PackCompactor.OBSOLETE_METADATA)
+                );
+                Assert.assertEquals(liveData[idx], PackCompactorTest.firstByte(reloaded));
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3.loadtest;
+
+import java.util.Random;
+
+/**
+ * Faults injected by the {@code LocalS3Server} on an operation. The latency
+ * is a fixed part plus an exponentially distributed part, giving the long
+ * tail usually observed on Amazon S3.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @see LocalS3Server
+ * @since 26.10.19
+ */
+public final class FaultProfile {
+
+    /**
+     * No latency and no fault.
+     *
+     * @since 26.10.19
+     */
+    public static final FaultProfile NONE = new FaultProfile(0, 0, 0, 0);
+
+    /**
+     * Latency added to every request.
+     *
+     * @since 26.10.19
+     */
+    private final long fixedLatencyMillis;
+
+    /**
+     * Mean of the exponentially distributed latency.
+     *
+     * @since 26.10.19
+     */
+    private final long meanExtraLatencyMillis;
+
+    /**
+     * Rate of requests answered with "503 SlowDown".
+     *
+     * @since 26.10.19
+     */
+    private final double slowDownRate;
+
+    /**
+     * Rate of requests where the connection is closed mid-stream.
+     *
+     * @since 26.10.19
+     */
+    private final double disconnectRate;
+
+    /**
+     * Create a new instance of {@code FaultProfile}.
+     *
+     * @param fixedLatencyMillis     Latency added to every request
+     * @param meanExtraLatencyMillis Mean of the exponentially distributed latency
+     * @param slowDownRate           Rate of requests answered with "503 SlowDown", between 0 and 1
+     * @param disconnectRate         Rate of requests where the connection is closed mid-stream, between 0 and 1
+     * @since 26.10.19
+     */
+    public FaultProfile(final long fixedLatencyMillis, final long meanExtraLatencyMillis, final double slowDownRate, final double disconnectRate) {
+        if (fixedLatencyMillis < 0 || meanExtraLatencyMillis < 0
+            || slowDownRate < 0 || slowDownRate > 1
+            || disconnectRate < 0 || disconnectRate > 1) {
+            throw new IllegalArgumentException("Invalid fault profile");
+        }
+        this.fixedLatencyMillis = fixedLatencyMillis;
+        this.meanExtraLatencyMillis = meanExtraLatencyMillis;
+        this.slowDownRate = slowDownRate;
+        this.disconnectRate = disconnectRate;
+    }
+
+    /**
+     * Get the rate of requests answered with "503 SlowDown".
+     *
+     * @return The rate, between 0 and 1
+     * @since 26.10.19
+     */
+    public double getSlowDownRate() {
+        return this.slowDownRate;
+    }
+
+    /**
+     * Get the rate of requests where the connection is closed mid-stream.
+     *
+     * @return The rate, between 0 and 1
+     * @since 26.10.19
+     */
+    public double getDisconnectRate() {
+        return this.disconnectRate;
+    }
+
+    /**
+     * Draw the latency of a request.
+     *
+     * @param random The random generator to use
+     * @return The latency in milliseconds
+     * @since 26.10.19
+     */
+    public long nextLatencyMillis(final Random random) {
+        if (this.meanExtraLatencyMillis == 0) {
+            return this.fixedLatencyMillis;
+        }
+        return this.fixedLatencyMillis + (long) (-Math.log(1 - random.nextDouble()) * this.meanExtraLatencyMillis);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3.loadtest;
+
+import com.zero_x_baadf00d.play.module.aws.s3.ebean.BaseS3FileModel;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Drives {@code save()}, {@code getFileContent()} and {@code delete()} on
+ * a model at a given concurrency and measures the latency of each call.
+ * It needs a running application, typically configured with the end point
+ * of a {@code LocalS3Server} and path style access enabled.
+ *
+ * @param <T> The type of the model
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @see LocalS3Server
+ * @see LoadTestReport
+ * @since 26.10.19
+ */
+public final class LoadTestHarness<T extends BaseS3FileModel> {
+
+    /**
+     * Creates the models to save.
+     *
+     * @since 26.10.19
+     */
+    private final Supplier<T> modelFactory;
+
+    /**
+     * Number of concurrent workers.
+     *
+     * @since 26.10.19
+     */
+    private final int concurrency;
+
+    /**
+     * Size of the uploaded objects.
+     *
+     * @since 26.10.19
+     */
+    private final int objectSize;
+
+    /**
+     * Create a new instance of {@code LoadTestHarness}.
+     *
+     * @param modelFactory Creates the models to save, the harness sets their name, content type and object
+     * @param concurrency  Number of concurrent workers
+     * @param objectSize   Size of the uploaded objects in bytes
+     * @since 26.10.19
+     */
+    public LoadTestHarness(final Supplier<T> modelFactory, final int concurrency, final int objectSize) {
+        if (concurrency <= 0 || objectSize < 0) {
+            throw new IllegalArgumentException("Invalid load test parameters");
+        }
+        this.modelFactory = modelFactory;
+        this.concurrency = concurrency;
+        this.objectSize = objectSize;
+    }
+
+    /**
+     * Run the load test. Each iteration saves a new model, reads its
+     * content back and deletes it.
+     *
+     * @param iterations The number of iterations
+     * @return The report of the run
+     * @throws InterruptedException If the thread has been interrupted while waiting the workers
+     * @since 26.10.19
+     */
+    public LoadTestReport run(final int iterations) throws InterruptedException {
+        final Map<LoadTestReport.Operation, List<Long>> latencies = new EnumMap<>(LoadTestReport.Operation.class);
+        final Map<LoadTestReport.Operation, AtomicLong> errors = new EnumMap<>(LoadTestReport.Operation.class);
+        for (final LoadTestReport.Operation operation : LoadTestReport.Operation.values()) {
+            latencies.put(operation, Collections.synchronizedList(new ArrayList<>(iterations)));
+            errors.put(operation, new AtomicLong());
+        }
+
+        // Sample the heap during the run
+        final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+        final long heapUsedAtStart = memoryMXBean.getHeapMemoryUsage().getUsed();
+        final AtomicLong heapUsedPeak = new AtomicLong(heapUsedAtStart);
+        final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(
+            () -> heapUsedPeak.accumulateAndGet(memoryMXBean.getHeapMemoryUsage().getUsed(), Math::max),
+            0,
+            50,
+            TimeUnit.MILLISECONDS
+        );
+
+        final AtomicInteger remaining = new AtomicInteger(iterations);
+        final ExecutorService workers = Executors.newFixedThreadPool(this.concurrency);
+        final long start = System.nanoTime();
+        for (int idx = 0; idx < this.concurrency; ++idx) {
+            workers.execute(() -> {
+                while (remaining.getAndDecrement() > 0 && !Thread.currentThread().isInterrupted()) {
+                    this.runIteration(latencies, errors);
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            workers.shutdownNow();
+            sampler.shutdownNow();
+        }
+        final long durationNanos = System.nanoTime() - start;
+
+        final Map<LoadTestReport.Operation, LoadTestReport.OperationStats> stats = new EnumMap<>(LoadTestReport.Operation.class);
+        for (final LoadTestReport.Operation operation : LoadTestReport.Operation.values()) {
+            final long[] operationLatencies;
+            synchronized (latencies.get(operation)) {
+                operationLatencies = latencies.get(operation).stream().mapToLong(Long::longValue).toArray();
+            }
+            stats.put(operation, new LoadTestReport.OperationStats(operationLatencies, errors.get(operation).get()));
+        }
+        final long heapUsedAtEnd = memoryMXBean.getHeapMemoryUsage().getUsed();
+        return new LoadTestReport(durationNanos, heapUsedAtStart, Math.max(heapUsedPeak.get(), heapUsedAtEnd), heapUsedAtEnd, stats);
+    }
+
+    /**
+     * Save a new model, read its content back and delete it.
+     *
+     * @param latencies Receives the latency of each successful call
+     * @param errors    Receives the number of failed calls
+     * @since 26.10.19
+     */
+    private void runIteration(final Map<LoadTestReport.Operation, List<Long>> latencies,
+                              final Map<LoadTestReport.Operation, AtomicLong> errors) {
+        final byte[] data = new byte[this.objectSize];
+        ThreadLocalRandom.current().nextBytes(data);
+        final T model = this.modelFactory.get();
+        model.setName("load-test.bin");
+        // The content type column of the models is limited to 20 characters
+        model.setContentType("application/x-binary");
+        model.setObject(new ByteArrayInputStream(data));
+
+        long start = System.nanoTime();
+        try {
+            model.save();
+            latencies.get(LoadTestReport.Operation.SAVE).add(System.nanoTime() - start);
+        } catch (final RuntimeException ex) {
+            errors.get(LoadTestReport.Operation.SAVE).incrementAndGet();
+            return;
+        }
+
+        start = System.nanoTime();
+        try (InputStream content = model.getFileContent()) {
+            final byte[] buffer = new byte[8192];
+            long length = 0;
+            int count = content.read(buffer);
+            while (count >= 0) {
+                length += count;
+                count = content.read(buffer);
+            }
+            if (length == data.length) {
+                latencies.get(LoadTestReport.Operation.GET_FILE_CONTENT).add(System.nanoTime() - start);
+            } else {
+                errors.get(LoadTestReport.Operation.GET_FILE_CONTENT).incrementAndGet();
+            }
+        } catch (final IOException | RuntimeException ex) {
+            errors.get(LoadTestReport.Operation.GET_FILE_CONTENT).incrementAndGet();
+        }
+
+        start = System.nanoTime();
+        try {
+            model.delete();
+            latencies.get(LoadTestReport.Operation.DELETE).add(System.nanoTime() - start);
+        } catch (final RuntimeException ex) {
+            errors.get(LoadTestReport.Operation.DELETE).incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3.loadtest;
+
+import com.zero_x_baadf00d.play.module.aws.s3.LocalS3Application;
+import com.zero_x_baadf00d.play.module.aws.s3.ebean.S3FileModel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * LoadTestHarnessTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @since 26.10.19
+ */
+public class LoadTestHarnessTest {
+
+    /**
+     * Run the harness and check that every call succeeded.
+     *
+     * @param application  The application to drive
+     * @param modelFactory Creates the models to save
+     * @param objectSize   Size of the uploaded objects
+     * @throws InterruptedException If the thread has been interrupted
+     * @since 26.10.19
+     */
+    private static void run(final LocalS3Application application, final Supplier<S3FileModel> modelFactory,
+                            final int objectSize) throws InterruptedException {
+        final LocalS3Server server = application.getServer();
+        // Mild faults, all retried by the client
+        server.setFaultProfile(LocalS3Server.Operation.PUT, new FaultProfile(2, 3, 0.02, 0.02));
+        server.setFaultProfile(LocalS3Server.Operation.GET, new FaultProfile(1, 2, 0.02, 0));
+        server.setFaultProfile(LocalS3Server.Operation.DELETE, new FaultProfile(1, 2, 0.02, 0));
+        final LoadTestReport report = new LoadTestHarness<>(modelFactory, 8, objectSize).run(200);
+        for (final LoadTestReport.Operation operation : LoadTestReport.Operation.values()) {
+            final LoadTestReport.OperationStats stats = report.getOperationStats(operation);
+            Assert.assertEquals(operation.name(), 0, stats.getErrors());
+            Assert.assertEquals(operation.name(), 200, stats.getCount());
+            Assert.assertTrue(operation.name(), stats.getPercentileMillis(50) > 0);
+            Assert.assertTrue(operation.name(), stats.getPercentileMillis(99) >= stats.getPercentileMillis(50));
+        }
+        Assert.assertEquals(0, S3FileModel.find.query().findCount());
+    }
+
+    @Test
+    public void run() throws Exception {
+        try (LocalS3Application application = new LocalS3Application(Collections.emptyMap())) {
+            LoadTestHarnessTest.run(application, S3FileModel::new, 16384);
+            Assert.assertEquals(0, application.getServer().getObjectCount(LocalS3Application.BUCKET));
+            Assert.assertTrue(application.getServer().getRequestCount(LocalS3Server.Operation.DELETE) >= 200);
+            Assert.assertTrue(application.getServer().getFaultCount(LocalS3Server.Operation.PUT) > 0);
+        }
+    }
+
+    @Test
+    public void runWithPacking() throws Exception {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("aws.s3.packing.enabled", true);
+        settings.put("aws.s3.packing.linger", "20ms");
+        try (LocalS3Application application = new LocalS3Application(settings)) {
+            LoadTestHarnessTest.run(application, () -> {
+                final S3FileModel model = new S3FileModel();
+                model.setPrivate(true);
+                return model;
+            }, 1024);
+            Assert.assertEquals(0, application.getServer().getRequestCount(LocalS3Server.Operation.DELETE));
+            Assert.assertTrue(application.getServer().getObjectCount(LocalS3Application.BUCKET) < 200);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3.loadtest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Result of a run of the {@code LoadTestHarness}.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @see LoadTestHarness
+ * @since 26.10.19
+ */
+public final class LoadTestReport {
+
+    /**
+     * Duration of the run in nanoseconds.
+     *
+     * @since 26.10.19
+     */
+    private final long durationNanos;
+
+    /**
+     * Used heap at the beginning of the run.
+     *
+     * @since 26.10.19
+     */
+    private final long heapUsedAtStart;
+
+    /**
+     * Highest used heap sampled during the run.
+     *
+     * @since 26.10.19
+     */
+    private final long heapUsedPeak;
+
+    /**
+     * Used heap at the end of the run.
+     *
+     * @since 26.10.19
+     */
+    private final long heapUsedAtEnd;
+
+    /**
+     * Statistics of each operation.
+     *
+     * @since 26.10.19
+     */
+    private final Map<Operation, OperationStats> operationStats;
+
+    /**
+     * Create a new instance of {@code LoadTestReport}.
+     *
+     * @param durationNanos   Duration of the run in nanoseconds
+     * @param heapUsedAtStart Used heap at the beginning of the run
+     * @param heapUsedPeak    Highest used heap sampled during the run
+     * @param heapUsedAtEnd   Used heap at the end of the run
+     * @param operationStats  Statistics of each operation
+     * @since 26.10.19
+     */
+    LoadTestReport(final long durationNanos, final long heapUsedAtStart, final long heapUsedPeak,
+                   final long heapUsedAtEnd, final Map<Operation, OperationStats> operationStats) {
+        this.durationNanos = durationNanos;
+        this.heapUsedAtStart = heapUsedAtStart;
+        this.heapUsedPeak = heapUsedPeak;
+        this.heapUsedAtEnd = heapUsedAtEnd;
+        this.operationStats = Collections.unmodifiableMap(new EnumMap<>(operationStats));
+    }
+
+    /**
+     * Get the duration of the run.
+     *
+     * @return The duration in milliseconds
+     * @since 26.10.19
+     */
+    public double getDurationMillis() {
+        return this.durationNanos / 1e6;
+    }
+
+    /**
+     * Get the used heap at the beginning of the run.
+     *
+     * @return The used heap in bytes
+     * @since 26.10.19
+     */
+    public long getHeapUsedAtStart() {
+        return this.heapUsedAtStart;
+    }
+
+    /**
+     * Get the highest used heap sampled during the run.
+     *
+     * @return The used heap in bytes
+     * @since 26.10.19
+     */
+    public long getHeapUsedPeak() {
+        return this.heapUsedPeak;
+    }
+
+    /**
+     * Get the used heap at the end of the run.
+     *
+     * @return The used heap in bytes
+     * @since 26.10.19
+     */
+    public long getHeapUsedAtEnd() {
+        return this.heapUsedAtEnd;
+    }
+
+    /**
+     * Get the statistics of an operation.
+     *
+     * @param operation The operation
+     * @return The statistics
+     * @since 26.10.19
+     */
+    public OperationStats getOperationStats(final Operation operation) {
+        return this.operationStats.get(operation);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Duration: %.0f ms, heap used: %d MB at start, %d MB peak, %d MB at end%n",
+            this.getDurationMillis(), this.heapUsedAtStart >> 20, this.heapUsedPeak >> 20, this.heapUsedAtEnd >> 20));
+        sb.append(String.format("%-18s %8s %8s %10s %10s %10s %10s %10s%n",
+            "Operation", "Count", "Errors", "Ops/s", "p50 (ms)", "p95 (ms)", "p99 (ms)", "max (ms)"));
+        for (final Map.Entry<Operation, OperationStats> entry : this.operationStats.entrySet()) {
+            final OperationStats stats = entry.getValue();
+            sb.append(String.format("%-18s %8d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                entry.getKey(), stats.getCount(), stats.getErrors(), stats.getCount() * 1e9 / Math.max(1, this.durationNanos),
+                stats.getPercentileMillis(50), stats.getPercentileMillis(95), stats.getPercentileMillis(99), stats.getPercentileMillis(100)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Operation driven by the harness.
+     *
+     * @since 26.10.19
+     */
+    public enum Operation {
+
+        /**
+         * Call to {@code save()}.
+         *
+         * @since 26.10.19
+         */
+        SAVE,
+
+        /**
+         * Call to {@code getFileContent()}, including the read of the content.
+         *
+         * @since 26.10.19
+         */
+        GET_FILE_CONTENT,
+
+        /**
+         * Call to {@code delete()}, triggering {@code deleteRemoteFile()}.
+         *
+         * @since 26.10.19
+         */
+        DELETE
+    }
+
+    /**
+     * Statistics of an operation.
+     *
+     * @since 26.10.19
+     */
+    public static final class OperationStats {
+
+        /**
+         * Sorted latencies of the successful calls, in nanoseconds.
+         *
+         * @since 26.10.19
+         */
+        private final long[] latencies;
+
+        /**
+         * Number of failed calls.
+         *
+         * @since 26.10.19
+         */
+        private final long errors;
+
+        /**
+         * Build new statistics.
+         *
+         * @param latencies Latencies of the successful calls, in nanoseconds
+         * @param errors    Number of failed calls
+         * @since 26.10.19
+         */
+        OperationStats(final long[] latencies, final long errors) {
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.errors = errors;
+        }
+
+        /**
+         * Get the number of successful calls.
+         *
+         * @return The number of successful calls
+         * @since 26.10.19
+         */
+        public int getCount() {
+            return this.latencies.length;
+        }
+
+        /**
+         * Get the number of failed calls.
+         *
+         * @return The number of failed calls
+         * @since 26.10.19
+         */
+        public long getErrors() {
+            return this.errors;
+        }
+
+        /**
+         * Get a latency percentile of the successful calls (nearest rank).
+         *
+         * @param percentile The percentile, between 0 and 100
+         * @return The latency in milliseconds, {@code 0} if there is no successful call
+         * @since 26.10.19
+         */
+        public double getPercentileMillis(final double percentile) {
+            if (this.latencies.length == 0) {
+                return 0;
+            }
+            final int rank = (int) Math.ceil(percentile / 100 * this.latencies.length);
+            return this.latencies[Math.min(this.latencies.length, Math.max(1, rank)) - 1] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,694 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in of Amazon S3, holding the objects in memory. It
+ * supports what this module needs (bucket creation, put, copy, get with
+ * range, user metadata, delete and list) and can inject latency, "503 SlowDown" responses
+ * and mid-stream disconnects on each operation. Clients must use the
+ * path style access.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @see FaultProfile
+ * @since 26.10.19
+ */
+public final class LocalS3Server implements AutoCloseable {
+
+    /**
+     * Prefix of the headers holding the user metadata.
+     *
+     * @since 26.10.19
+     */
+    private static final String USER_METADATA_PREFIX = "x-amz-meta-";
+
+    /**
+     * The underlying HTTP server.
+     *
+     * @since 26.10.19
+     */
+    private final HttpServer httpServer;
+
+    /**
+     * The threads handling the requests.
+     *
+     * @since 26.10.19
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The stored objects, by bucket and key.
+     *
+     * @since 26.10.19
+     */
+    private final ConcurrentMap<String, NavigableMap<String, StoredObject>> buckets;
+
+    /**
+     * The faults to inject, per operation.
+     *
+     * @since 26.10.19
+     */
+    private final Map<Operation, FaultProfile> faultProfiles;
+
+    /**
+     * Number of requests, per operation.
+     *
+     * @since 26.10.19
+     */
+    private final Map<Operation, AtomicLong> requestCounts;
+
+    /**
+     * Number of injected faults, per operation.
+     *
+     * @since 26.10.19
+     */
+    private final Map<Operation, AtomicLong> faultCounts;
+
+    /**
+     * Create a new instance of {@code LocalS3Server} listening on the loopback interface.
+     *
+     * @param port The port to listen on, {@code 0} to use any free port
+     * @throws IOException If the server can't be bound
+     * @since 26.10.19
+     */
+    public LocalS3Server(final int port) throws IOException {
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "play-s3-local-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.buckets = new ConcurrentHashMap<>();
+        this.faultProfiles = new ConcurrentHashMap<>();
+        this.requestCounts = new EnumMap<>(Operation.class);
+        this.faultCounts = new EnumMap<>(Operation.class);
+        for (final Operation operation : Operation.values()) {
+            this.faultProfiles.put(operation, FaultProfile.NONE);
+            this.requestCounts.put(operation, new AtomicLong());
+            this.faultCounts.put(operation, new AtomicLong());
+        }
+        this.httpServer.setExecutor(this.executor);
+        this.httpServer.createContext("/", this::handle);
+    }
+
+    /**
+     * Start to accept requests.
+     *
+     * @since 26.10.19
+     */
+    public void start() {
+        this.httpServer.start();
+    }
+
+    /**
+     * Stop the server. Stored objects are lost.
+     *
+     * @since 26.10.19
+     */
+    @Override
+    public void close() {
+        this.httpServer.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Get the end point to configure on the client (ie: {@code aws.s3.endPoint}).
+     *
+     * @return The end point URL
+     * @since 26.10.19
+     */
+    public String getEndPoint() {
+        return "http://" + this.httpServer.getAddress().getHostString() + ":" + this.httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Set the faults to inject on an operation.
+     *
+     * @param operation    The operation
+     * @param faultProfile The faults to inject
+     * @since 26.10.19
+     */
+    public void setFaultProfile(final Operation operation, final FaultProfile faultProfile) {
+        this.faultProfiles.put(operation, faultProfile == null ? FaultProfile.NONE : faultProfile);
+    }
+
+    /**
+     * Get the number of requests received for an operation.
+     *
+     * @param operation The operation
+     * @return The number of requests
+     * @since 26.10.19
+     */
+    public long getRequestCount(final Operation operation) {
+        return this.requestCounts.get(operation).get();
+    }
+
+    /**
+     * Get the number of faults injected on an operation.
+     *
+     * @param operation The operation
+     * @return The number of faults
+     * @since 26.10.19
+     */
+    public long getFaultCount(final Operation operation) {
+        return this.faultCounts.get(operation).get();
+    }
+
+    /**
+     * Get the number of objects stored in a bucket.
+     *
+     * @param bucketName The bucket name
+     * @return The number of objects
+     * @since 26.10.19
+     */
+    public int getObjectCount(final String bucketName) {
+        final NavigableMap<String, StoredObject> bucket = this.buckets.get(bucketName);
+        return bucket == null ? 0 : bucket.size();
+    }
+
+    /**
+     * Handle a request.
+     *
+     * @param exchange The HTTP exchange
+     * @throws IOException If something goes wrong with the connection
+     * @since 26.10.19
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final String path = exchange.getRequestURI().getPath();
+            final int slashIdx = path.indexOf('/', 1);
+            final String bucketName = slashIdx < 0 ? path.substring(1) : path.substring(1, slashIdx);
+            final String key = slashIdx < 0 ? "" : path.substring(slashIdx + 1);
+            final String method = exchange.getRequestMethod();
+            final Operation operation;
+            if ("PUT".equals(method) && exchange.getRequestHeaders().containsKey("x-amz-copy-source")) {
+                operation = Operation.COPY;
+            } else if ("PUT".equals(method)) {
+                operation = Operation.PUT;
+            } else if ("DELETE".equals(method)) {
+                operation = Operation.DELETE;
+            } else if (key.isEmpty()) {
+                operation = Operation.LIST;
+            } else {
+                operation = Operation.GET;
+            }
+            this.requestCounts.get(operation).incrementAndGet();
+
+            // Inject faults
+            final FaultProfile faultProfile = this.faultProfiles.get(operation);
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final long latency = faultProfile.nextLatencyMillis(random);
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            final boolean slowDown = random.nextDouble() < faultProfile.getSlowDownRate();
+            final boolean disconnect = !slowDown && random.nextDouble() < faultProfile.getDisconnectRate();
+            if (slowDown || disconnect) {
+                this.faultCounts.get(operation).incrementAndGet();
+            }
+            if (disconnect && operation != Operation.GET) {
+                // Abort the request before sending any status line, an upload is cut midway
+                LocalS3Server.readPart(exchange);
+                return;
+            }
+
+            // The request body must be consumed, otherwise the connection is not reused
+            final byte[] body = LocalS3Server.readBody(exchange);
+            if (slowDown) {
+                this.sendError(exchange, 503, "SlowDown", "Please reduce your request rate.");
+                return;
+            }
+            switch (operation) {
+                case PUT:
+                case COPY:
+                    this.handlePut(exchange, bucketName, key, body);
+                    break;
+                case DELETE:
+                    final NavigableMap<String, StoredObject> bucket = this.buckets.get(bucketName);
+                    if (bucket != null) {
+                        bucket.remove(key);
+                    }
+                    exchange.sendResponseHeaders(204, -1);
+                    break;
+                case LIST:
+                    this.handleList(exchange, bucketName);
+                    break;
+                default:
+                    this.handleGet(exchange, bucketName, key, disconnect);
+                    break;
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Handle the creation of a bucket, the upload or the copy of an object.
+     *
+     * @param exchange   The HTTP exchange
+     * @param bucketName The bucket name
+     * @param key        The object key, empty for a bucket creation
+     * @param content    The request body
+     * @throws IOException If something goes wrong with the connection
+     * @since 26.10.19
+     */
+    private void handlePut(final HttpExchange exchange, final String bucketName, final String key, final byte[] content) throws IOException {
+        if (key.isEmpty()) {
+            if (this.buckets.putIfAbsent(bucketName, new ConcurrentSkipListMap<>()) != null) {
+                this.sendError(exchange, 409, "BucketAlreadyOwnedByYou", "Your previous request to create the named bucket succeeded.");
+            } else {
+                exchange.sendResponseHeaders(200, -1);
+            }
+            return;
+        }
+        final NavigableMap<String, StoredObject> bucket = this.buckets.get(bucketName);
+        if (bucket == null) {
+            this.sendError(exchange, 404, "NoSuchBucket", "The specified bucket does not exist.");
+            return;
+        }
+        final String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+        if (copySource != null) {
+            this.handleCopy(exchange, bucket, key, copySource);
+            return;
+        }
+        final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        final StoredObject object = new StoredObject(
+            content,
+            contentType == null ? "application/octet-stream" : contentType,
+            LocalS3Server.readUserMetadata(exchange)
+        );
+        bucket.put(key, object);
+        exchange.getResponseHeaders().add("ETag", object.eTag);
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    /**
+     * Handle the copy of an object. The metadata are kept, unless
+     * the "REPLACE" directive is used.
+     *
+     * @param exchange   The HTTP exchange
+     * @param bucket     The destination bucket
+     * @param key        The destination key
+     * @param copySource The source, as "bucket/key"
+     * @throws IOException If something goes wrong with the connection
+     * @since 26.10.19
+     */
+    private void handleCopy(final HttpExchange exchange, final NavigableMap<String, StoredObject> bucket,
+                            final String key, final String copySource) throws IOException {
+        final String source = URLDecoder.decode(copySource, StandardCharsets.UTF_8.name());
+        final int slashIdx = source.indexOf('/', 1);
+        final NavigableMap<String, StoredObject> sourceBucket = slashIdx < 0
+            ? null
+            : this.buckets.get(source.substring(source.startsWith("/") ? 1 : 0, slashIdx));
+        final StoredObject sourceObject = sourceBucket == null ? null : sourceBucket.get(source.substring(slashIdx + 1));
+        if (sourceObject == null) {
+            this.sendError(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+            return;
+        }
+        final StoredObject object;
+        if ("REPLACE".equals(exchange.getRequestHeaders().getFirst("x-amz-metadata-directive"))) {
+            final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            object = new StoredObject(
+                sourceObject.content,
+                contentType == null ? "application/octet-stream" : contentType,
+                LocalS3Server.readUserMetadata(exchange)
+            );
+        } else {
+            object = new StoredObject(sourceObject.content, sourceObject.contentType, sourceObject.userMetadata);
+        }
+        bucket.put(key, object);
+        this.sendXml(exchange, 200, "<CopyObjectResult><LastModified>" + object.lastModified
+            + "</LastModified><ETag>" + LocalS3Server.escapeXml(object.eTag) + "</ETag></CopyObjectResult>");
+    }
+
+    /**
+     * Handle the download of an object, or of a range of an object.
+     *
+     * @param exchange   The HTTP exchange
+     * @param bucketName The bucket name
+     * @param key        The object key
+     * @param disconnect Close the connection before the end of the response
+     * @throws IOException If something goes wrong with the connection
+     * @since 26.10.19
+     */
+    private void handleGet(final HttpExchange exchange, final String bucketName, final String key, final boolean disconnect) throws IOException {
+        final NavigableMap<String, StoredObject> bucket = this.buckets.get(bucketName);
+        final StoredObject object = bucket == null ? null : bucket.get(key);
+        if (object == null) {
+            this.sendError(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+            return;
+        }
+        int start = 0;
+        int end = object.content.length - 1;
+        int status = 200;
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            final String[] bounds = range.substring(6).split("-", 2);
+            start = Integer.parseInt(bounds[0].trim());
+            if (bounds.length > 1 && !bounds[1].trim().isEmpty()) {
+                end = Math.min(end, Integer.parseInt(bounds[1].trim()));
+            }
+            if (start > end) {
+                this.sendError(exchange, 416, "InvalidRange", "The requested range is not satisfiable.");
+                return;
+            }
+            status = 206;
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + object.content.length);
+        }
+        final int length = end - start + 1;
+        exchange.getResponseHeaders().add("ETag", object.eTag);
+        exchange.getResponseHeaders().add("Content-Type", object.contentType);
+        exchange.getResponseHeaders().add("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(object.lastModified.atOffset(ZoneOffset.UTC)));
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        for (final Map.Entry<String, String> entry : object.userMetadata.entrySet()) {
+            exchange.getResponseHeaders().add(LocalS3Server.USER_METADATA_PREFIX + entry.getKey(), entry.getValue());
+        }
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length);
+        final OutputStream outputStream = exchange.getResponseBody();
+        if (disconnect) {
+            outputStream.write(object.content, start, length / 2);
+            outputStream.flush();
+            return;
+        }
+        outputStream.write(object.content, start, length);
+    }
+
+    /**
+     * Handle the listing of a bucket (ListObjectsV2, without pagination).
+     *
+     * @param exchange   The HTTP exchange
+     * @param bucketName The bucket name
+     * @throws IOException If something goes wrong with the connection
+     * @since 26.10.19
+     */
+    private void handleList(final HttpExchange exchange, final String bucketName) throws IOException {
+        final NavigableMap<String, StoredObject> bucket = this.buckets.get(bucketName);
+        if (bucket == null) {
+            this.sendError(exchange, 404, "NoSuchBucket", "The specified bucket does not exist.");
+            return;
+        }
+        String prefix = "";
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (final String parameter : query.split("&")) {
+                if (parameter.startsWith("prefix=")) {
+                    prefix = URLDecoder.decode(parameter.substring(7), StandardCharsets.UTF_8.name());
+                }
+            }
+        }
+        final StringBuilder contents = new StringBuilder();
+        int count = 0;
+        for (final Map.Entry<String, StoredObject> entry : bucket.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            count += 1;
+            contents.append("<Contents><Key>").append(LocalS3Server.escapeXml(entry.getKey()))
+                .append("</Key><LastModified>").append(entry.getValue().lastModified)
+                .append("</LastModified><ETag>").append(LocalS3Server.escapeXml(entry.getValue().eTag))
+                .append("</ETag><Size>").append(entry.getValue().content.length)
+                .append("</Size><StorageClass>STANDARD</StorageClass></Contents>");
+        }
+        this.sendXml(exchange, 200, "<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"><Name>"
+            + LocalS3Server.escapeXml(bucketName) + "</Name><Prefix>" + LocalS3Server.escapeXml(prefix)
+            + "</Prefix><KeyCount>" + count + "</KeyCount><MaxKeys>" + Math.max(count, 1000)
+            + "</MaxKeys><IsTruncated>false</IsTruncated>" + contents + "</ListBucketResult>");
+    }
+
+    /**
+     * Send an S3 error.
+     *
+     * @param exchange The HTTP exchange
+     * @param status   The HTTP status
+     * @param code     The S3 error code
+     * @param message  The error message
+     * @throws IOException If something goes wrong with the connection
+     * @since 26.10.19
+     */
+    private void sendError(final HttpExchange exchange, final int status, final String code, final String message) throws IOException {
+        this.sendXml(exchange, status, "<Error><Code>" + code + "</Code><Message>" + message
+            + "</Message><RequestId>" + UUID.randomUUID() + "</RequestId></Error>");
+    }
+
+    /**
+     * Send an XML document.
+     *
+     * @param exchange The HTTP exchange
+     * @param status   The HTTP status
+     * @param xml      The XML document
+     * @throws IOException If something goes wrong with the connection
+     * @since 26.10.19
+     */
+    private void sendXml(final HttpExchange exchange, final int status, final String xml) throws IOException {
+        final byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Read the whole request body, decoding the "aws-chunked" encoding if used.
+     *
+     * @param exchange The HTTP exchange
+     * @return The request body
+     * @throws IOException If the body can't be read
+     * @since 26.10.19
+     */
+    private static byte[] readBody(final HttpExchange exchange) throws IOException {
+        final String contentSha256 = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        if (contentSha256 != null && contentSha256.startsWith("STREAMING-")) {
+            return LocalS3Server.readAwsChunked(exchange.getRequestBody());
+        }
+        return LocalS3Server.readAll(exchange.getRequestBody());
+    }
+
+    /**
+     * Read the user metadata sent with a request.
+     *
+     * @param exchange The HTTP exchange
+     * @return The user metadata, by lower-cased name
+     * @since 26.10.19
+     */
+    private static Map<String, String> readUserMetadata(final HttpExchange exchange) {
+        final Map<String, String> userMetadata = new TreeMap<>();
+        for (final Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            final String name = header.getKey().toLowerCase(Locale.ENGLISH);
+            if (name.startsWith(LocalS3Server.USER_METADATA_PREFIX) && !header.getValue().isEmpty()) {
+                userMetadata.put(name.substring(LocalS3Server.USER_METADATA_PREFIX.length()), header.getValue().get(0));
+            }
+        }
+        return userMetadata;
+    }
+
+    /**
+     * Read the first half of the request body, as a connection
+     * lost during the upload would.
+     *
+     * @param exchange The HTTP exchange
+     * @throws IOException If the body can't be read
+     * @since 26.10.19
+     */
+    private static void readPart(final HttpExchange exchange) throws IOException {
+        final String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        long remaining = contentLength == null ? 1 : Math.max(1, Long.parseLong(contentLength) / 2);
+        final InputStream inputStream = exchange.getRequestBody();
+        final byte[] buffer = new byte[8192];
+        int count = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        while (count > 0 && remaining > count) {
+            remaining -= count;
+            count = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        }
+    }
+
+    /**
+     * Read a whole stream.
+     *
+     * @param inputStream The stream to read
+     * @return The content of the stream
+     * @throws IOException If the stream can't be read
+     * @since 26.10.19
+     */
+    private static byte[] readAll(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int count = inputStream.read(buffer);
+        while (count >= 0) {
+            content.write(buffer, 0, count);
+            count = inputStream.read(buffer);
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Read a stream using the "aws-chunked" encoding. Chunk
+     * signatures are not verified.
+     *
+     * @param inputStream The stream to read
+     * @return The decoded content of the stream
+     * @throws IOException If the stream can't be read
+     * @since 26.10.19
+     */
+    private static byte[] readAwsChunked(final InputStream inputStream) throws IOException {
+        final byte[] encoded = LocalS3Server.readAll(inputStream);
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int position = 0;
+        while (position < encoded.length) {
+            int lineEnd = position;
+            while (lineEnd + 1 < encoded.length && !(encoded[lineEnd] == '\r' && encoded[lineEnd + 1] == '\n')) {
+                lineEnd += 1;
+            }
+            final String header = new String(encoded, position, lineEnd - position, StandardCharsets.US_ASCII);
+            final int separatorIdx = header.indexOf(';');
+            final int chunkSize = Integer.parseInt(separatorIdx < 0 ? header.trim() : header.substring(0, separatorIdx).trim(), 16);
+            if (chunkSize == 0) {
+                break;
+            }
+            content.write(encoded, lineEnd + 2, chunkSize);
+            position = lineEnd + 2 + chunkSize + 2;
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Escape a string to be used in an XML document.
+     *
+     * @param value The value to escape
+     * @return The escaped value
+     * @since 26.10.19
+     */
+    private static String escapeXml(final String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Kind of request, used to choose the faults to inject.
+     *
+     * @since 26.10.19
+     */
+    public enum Operation {
+
+        /**
+         * Bucket creation and object upload.
+         *
+         * @since 26.10.19
+         */
+        PUT,
+
+        /**
+         * Object copy.
+         *
+         * @since 26.10.19
+         */
+        COPY,
+
+        /**
+         * Object download.
+         *
+         * @since 26.10.19
+         */
+        GET,
+
+        /**
+         * Object deletion.
+         *
+         * @since 26.10.19
+         */
+        DELETE,
+
+        /**
+         * Bucket listing.
+         *
+         * @since 26.10.19
+         */
+        LIST
+    }
+
+    /**
+     * Object stored in memory.
+     *
+     * @since 26.10.19
+     */
+    private static final class StoredObject {
+
+        private final byte[] content;
+        private final String contentType;
+        private final String eTag;
+        private final Map<String, String> userMetadata;
+        private final Instant lastModified;
+
+        StoredObject(final byte[] content, final String contentType, final Map<String, String> userMetadata) {
+            this.content = content;
+            this.contentType = contentType;
+            this.userMetadata = userMetadata;
+            this.lastModified = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+            try {
+                final StringBuilder hex = new StringBuilder("\"");
+                for (final byte b : MessageDigest.getInstance("MD5").digest(content)) {
+                    hex.append(String.format("%02x", b));
+                }
+                this.eTag = hex.append('"').toString();
+            } catch (final NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 - 2020 Thibault Meyer
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.zero_x_baadf00d.play.module.aws.s3.loadtest;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.util.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * LocalS3ServerTest.
+ *
+ * @author Thibault Meyer
+ * @version 26.10.19
+ * @since 26.10.19
+ */
+public class LocalS3ServerTest {
+
+    /**
+     * The bucket used by the tests.
+     *
+     * @since 26.10.19
+     */
+    private static final String BUCKET = "play-s3-test";
+
+    /**
+     * The stand-in under test.
+     *
+     * @since 26.10.19
+     */
+    private LocalS3Server server;
+
+    /**
+     * Client without retries and with a single connection, so
+     * a fault is never hidden and the connection is reused.
+     *
+     * @since 26.10.19
+     */
+    private AmazonS3 amazonS3;
+
+    /**
+     * Start the stand-in and create the bucket.
+     *
+     * @throws IOException If the server can't be started
+     * @since 26.10.19
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.server = new LocalS3Server(0);
+        this.server.start();
+        this.amazonS3 = AmazonS3ClientBuilder.standard()
+            .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(this.server.getEndPoint(), "us-east-1"))
+            .withPathStyleAccessEnabled(true)
+            .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("accessKey", "secretKey")))
+            .withClientConfiguration(new ClientConfiguration().withMaxErrorRetry(0).withMaxConnections(1))
+            .build();
+        this.amazonS3.createBucket(LocalS3ServerTest.BUCKET);
+    }
+
+    /**
+     * Stop the client and the stand-in.
+     *
+     * @since 26.10.19
+     */
+    @After
+    public void tearDown() {
+        this.amazonS3.shutdown();
+        this.server.close();
+    }
+
+    /**
+     * Upload an object with the given metadata.
+     *
+     * @param key         The object key
+     * @param content     The object content
+     * @param objMetaData The object metadata
+     * @since 26.10.19
+     */
+    private void putObject(final String key, final String content, final ObjectMetadata objMetaData) {
+        final byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        objMetaData.setContentLength(data.length);
+        this.amazonS3.putObject(new PutObjectRequest(LocalS3ServerTest.BUCKET, key, new ByteArrayInputStream(data), objMetaData));
+    }
+
+    @Test
+    public void putGetDelete() {
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "a", "first");
+        Assert.assertEquals("first", this.amazonS3.getObjectAsString(LocalS3ServerTest.BUCKET, "a"));
+        this.amazonS3.deleteObject(LocalS3ServerTest.BUCKET, "a");
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "a", "second");
+        Assert.assertEquals("second", this.amazonS3.getObjectAsString(LocalS3ServerTest.BUCKET, "a"));
+        this.amazonS3.deleteObject(LocalS3ServerTest.BUCKET, "a");
+        Assert.assertEquals(0, this.server.getObjectCount(LocalS3ServerTest.BUCKET));
+        try {
+            this.amazonS3.getObject(LocalS3ServerTest.BUCKET, "a");
+            Assert.fail();
+        } catch (final AmazonServiceException ex) {
+            Assert.assertEquals("NoSuchKey", ex.getErrorCode());
+        }
+    }
+
+    @Test
+    public void reusedConnection() {
+        // Every request follows another one on the only connection of the client
+        for (int idx = 0; idx < 20; ++idx) {
+            this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "key", "content" + idx);
+            this.amazonS3.deleteObject(LocalS3ServerTest.BUCKET, "key");
+            this.amazonS3.createBucket("play-s3-test-" + idx);
+        }
+        Assert.assertEquals(0, this.server.getFaultCount(LocalS3Server.Operation.PUT));
+        Assert.assertEquals(41, this.server.getRequestCount(LocalS3Server.Operation.PUT));
+        Assert.assertEquals(20, this.server.getRequestCount(LocalS3Server.Operation.DELETE));
+    }
+
+    @Test
+    public void rangedGet() throws IOException {
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "range", "0123456789");
+        try (S3Object obj = this.amazonS3.getObject(new GetObjectRequest(LocalS3ServerTest.BUCKET, "range").withRange(2, 5))) {
+            Assert.assertEquals("2345", IOUtils.toString(obj.getObjectContent()));
+            Assert.assertEquals(4, obj.getObjectMetadata().getContentLength());
+        }
+        Assert.assertEquals(10, this.amazonS3.getObjectMetadata(LocalS3ServerTest.BUCKET, "range").getContentLength());
+    }
+
+    @Test
+    public void list() {
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "pack/a", "a");
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "pack/b", "bb");
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "other", "c");
+        final ListObjectsV2Result result = this.amazonS3.listObjectsV2(LocalS3ServerTest.BUCKET, "pack/");
+        final List<String> keys = result.getObjectSummaries().stream().map(S3ObjectSummary::getKey).collect(Collectors.toList());
+        Assert.assertFalse(result.isTruncated());
+        Assert.assertEquals(2, keys.size());
+        Assert.assertEquals("pack/a", keys.get(0));
+        Assert.assertEquals("pack/b", keys.get(1));
+        Assert.assertEquals(2, result.getObjectSummaries().get(1).getSize());
+    }
+
+    @Test
+    public void userMetadata() {
+        final ObjectMetadata objMetaData = new ObjectMetadata();
+        objMetaData.setContentType("text/plain");
+        objMetaData.addUserMetadata("play-s3-profile", "archive");
+        this.putObject("meta", "content", objMetaData);
+        final ObjectMetadata stored = this.amazonS3.getObjectMetadata(LocalS3ServerTest.BUCKET, "meta");
+        Assert.assertEquals("archive", stored.getUserMetaDataOf("play-s3-profile"));
+        Assert.assertEquals("text/plain", stored.getContentType());
+        Assert.assertEquals(
+            "archive",
+            this.amazonS3.getObject(LocalS3ServerTest.BUCKET, "meta").getObjectMetadata().getUserMetaDataOf("play-s3-profile")
+        );
+    }
+
+    @Test
+    public void copyInPlaceReplacingMetadata() throws InterruptedException {
+        final ObjectMetadata objMetaData = new ObjectMetadata();
+        objMetaData.addUserMetadata("play-s3-profile", "default");
+        this.putObject("pack", "0123456789", objMetaData);
+        final long lastModified = this.amazonS3.getObjectMetadata(LocalS3ServerTest.BUCKET, "pack").getLastModified().getTime();
+        Thread.sleep(1100);
+
+        final ObjectMetadata newMetaData = new ObjectMetadata();
+        newMetaData.addUserMetadata("play-s3-replaced-by", "pack-2");
+        this.amazonS3.copyObject(
+            new CopyObjectRequest(LocalS3ServerTest.BUCKET, "pack", LocalS3ServerTest.BUCKET, "pack").withNewObjectMetadata(newMetaData)
+        );
+        final ObjectMetadata stored = this.amazonS3.getObjectMetadata(LocalS3ServerTest.BUCKET, "pack");
+        Assert.assertEquals("pack-2", stored.getUserMetaDataOf("play-s3-replaced-by"));
+        Assert.assertNull(stored.getUserMetaDataOf("play-s3-profile"));
+        Assert.assertTrue(stored.getLastModified().getTime() > lastModified);
+        Assert.assertEquals("0123456789", this.amazonS3.getObjectAsString(LocalS3ServerTest.BUCKET, "pack"));
+    }
+
+    @Test
+    public void copyKeepingMetadata() {
+        final ObjectMetadata objMetaData = new ObjectMetadata();
+        objMetaData.addUserMetadata("play-s3-profile", "archive");
+        this.putObject("source", "content", objMetaData);
+        this.amazonS3.copyObject(LocalS3ServerTest.BUCKET, "source", LocalS3ServerTest.BUCKET, "dir/copy");
+        Assert.assertEquals("content", this.amazonS3.getObjectAsString(LocalS3ServerTest.BUCKET, "dir/copy"));
+        Assert.assertEquals(
+            "archive",
+            this.amazonS3.getObjectMetadata(LocalS3ServerTest.BUCKET, "dir/copy").getUserMetaDataOf("play-s3-profile")
+        );
+        try {
+            this.amazonS3.copyObject(LocalS3ServerTest.BUCKET, "missing", LocalS3ServerTest.BUCKET, "copy");
+            Assert.fail();
+        } catch (final AmazonServiceException ex) {
+            Assert.assertEquals("NoSuchKey", ex.getErrorCode());
+        }
+    }
+
+    @Test
+    public void latency() {
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "slow", "content");
+        this.server.setFaultProfile(LocalS3Server.Operation.GET, new FaultProfile(200, 0, 0, 0));
+        final long start = System.nanoTime();
+        Assert.assertEquals("content", this.amazonS3.getObjectAsString(LocalS3ServerTest.BUCKET, "slow"));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+    }
+
+    @Test
+    public void slowDown() {
+        this.server.setFaultProfile(LocalS3Server.Operation.PUT, new FaultProfile(0, 0, 1, 0));
+        try {
+            this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "key", "content");
+            Assert.fail();
+        } catch (final AmazonServiceException ex) {
+            Assert.assertEquals(503, ex.getStatusCode());
+            Assert.assertEquals("SlowDown", ex.getErrorCode());
+        }
+        Assert.assertEquals(1, this.server.getFaultCount(LocalS3Server.Operation.PUT));
+        Assert.assertEquals(0, this.server.getObjectCount(LocalS3ServerTest.BUCKET));
+
+        // The rejected body was consumed, the connection can be reused
+        this.server.setFaultProfile(LocalS3Server.Operation.PUT, null);
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "key", "content");
+        Assert.assertEquals(1, this.server.getObjectCount(LocalS3ServerTest.BUCKET));
+    }
+
+    @Test
+    public void copyFault() {
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "key", "content");
+        this.server.setFaultProfile(LocalS3Server.Operation.COPY, new FaultProfile(0, 0, 1, 0));
+        try {
+            this.amazonS3.copyObject(LocalS3ServerTest.BUCKET, "key", LocalS3ServerTest.BUCKET, "copy");
+            Assert.fail();
+        } catch (final AmazonServiceException ex) {
+            Assert.assertEquals("SlowDown", ex.getErrorCode());
+        }
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "other", "content");
+        Assert.assertEquals(1, this.server.getRequestCount(LocalS3Server.Operation.COPY));
+        Assert.assertEquals(0, this.server.getFaultCount(LocalS3Server.Operation.PUT));
+        Assert.assertEquals(2, this.server.getObjectCount(LocalS3ServerTest.BUCKET));
+    }
+
+    @Test
+    public void getDisconnect() {
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "key", "0123456789");
+        this.server.setFaultProfile(LocalS3Server.Operation.GET, new FaultProfile(0, 0, 0, 1));
+        try {
+            this.amazonS3.getObjectAsString(LocalS3ServerTest.BUCKET, "key");
+            Assert.fail();
+        } catch (final SdkClientException ex) {
+            Assert.assertFalse(ex instanceof AmazonServiceException);
+        }
+        Assert.assertEquals(1, this.server.getFaultCount(LocalS3Server.Operation.GET));
+    }
+
+    @Test
+    public void putDisconnect() {
+        this.server.setFaultProfile(LocalS3Server.Operation.PUT, new FaultProfile(0, 0, 0, 1));
+        try {
+            this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "key", "0123456789");
+            Assert.fail();
+        } catch (final SdkClientException ex) {
+            Assert.assertFalse(ex instanceof AmazonServiceException);
+        }
+        Assert.assertEquals(1, this.server.getFaultCount(LocalS3Server.Operation.PUT));
+        Assert.assertEquals(0, this.server.getObjectCount(LocalS3ServerTest.BUCKET));
+
+        this.server.setFaultProfile(LocalS3Server.Operation.PUT, null);
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "key", "0123456789");
+        Assert.assertEquals("0123456789", this.amazonS3.getObjectAsString(LocalS3ServerTest.BUCKET, "key"));
+    }
+
+    @Test
+    public void deleteAndListDisconnect() {
+        this.amazonS3.putObject(LocalS3ServerTest.BUCKET, "key", "content");
+        this.server.setFaultProfile(LocalS3Server.Operation.DELETE, new FaultProfile(0, 0, 0, 1));
+        this.server.setFaultProfile(LocalS3Server.Operation.LIST, new FaultProfile(0, 0, 0, 1));
+        try {
+            this.amazonS3.deleteObject(LocalS3ServerTest.BUCKET, "key");
+            Assert.fail();
+        } catch (final SdkClientException ex) {
+            Assert.assertFalse(ex instanceof AmazonServiceException);
+        }
+        try {
+            this.amazonS3.listObjectsV2(LocalS3ServerTest.BUCKET);
+            Assert.fail();
+        } catch (final SdkClientException ex) {
+            Assert.assertFalse(ex instanceof AmazonServiceException);
+        }
+        Assert.assertEquals(1, this.server.getFaultCount(LocalS3Server.Operation.DELETE));
+        Assert.assertEquals(1, this.server.getFaultCount(LocalS3Server.Operation.LIST));
+    }
+}